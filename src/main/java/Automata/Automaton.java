@@ -4,6 +4,8 @@ import Main.GraphViz;
 import Main.UtilityMethods;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -12,8 +14,8 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -22,6 +24,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.TreeMap;
 import java.util.Iterator;
 
@@ -29,8 +32,8 @@ import dk.brics.automaton.RegExp;
 import dk.brics.automaton.State;
 import dk.brics.automaton.Transition;
 import it.unimi.dsi.fastutil.ints.*;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 
 /**
  * This class can represent different types of automaton: deterministic/non-deterministic and/or automata with output/automata without output.<bf>
@@ -167,26 +170,32 @@ public class Automaton {
      * For memory reduction, during determinization the transition function d is set to null and temporarily represented with
      * the memory-efficient newMemD, which only stores single-state transitions output by the Subset Construction algorithm.
      * The transition function d is then regenerated during the minimize_valmari method, once the states are minimized.
+     *
+     * Note that d can also be null because the automaton is stored in the dense form transitionTable, or in the
+     * compressed form compressedTransitions. In that case call ensureTransitionMap() (or get_transition_function())
+     * before accessing d.
      */
     public List<Int2ObjectRBTreeMap<IntList>> d;
 
     /**
-     * Valmari fields
+     * Dense transition function for deterministic automata. When transitionTable is not null, d is null and
+     * transitionTable[q * alphabetSize + x] is the state we go to from q on (encoded) input x, or -1 if there is no
+     * such transition. For example, with alphabetSize = 2, transitionTable = [1,-1,0,1] means that state 0 goes to 1 on 0
+     * and has no transition on 1, and state 1 goes to 0 on 0 and to 1 on 1.
+     * minimize_valmari produces this form when the minimized automaton has enough transitions per state, since a flat
+     * int array costs 4 bytes per entry while every entry of d costs a tree node and a list.
+     * crossProduct, canonize, write, not, quantify, and totalize work on it directly. Every other method
+     * calls ensureTransitionMap() first, which turns it back into d.
      */
-    // blocks (consist of states)
-    Partition B;
-    // cords (consist of transitions)
-    Partition C;
-
-    // number of states
-    public int num_states;
-    // number of transitions
-    public int num_transitions;
-    // number of final states
-    public int num_finalstates;
+    int[] transitionTable;
 
-    /* Adjacent transitions */
-    int[] _A, _F;
+    /**
+     * Compressed nondeterministic transition function. quantify, reverse, star, and concat build their
+     * nondeterministic result in this form instead of d, and subsetConstruction reads it directly. crossProduct uses
+     * it too, unless both of its inputs are stored in transitionTable.
+     * When compressedTransitions is not null, both d and transitionTable are null.
+     */
+    CompressedTransitions compressedTransitions;
 
     // for use in the combine command, counts how many products we have taken so far, and hence what to set outputs to
     public int combineIndex;
@@ -210,172 +219,146 @@ public class Automaton {
     // we find that many
     public int maxNeeded;
 
-    void make_adjacent(int K[]) {
-        int q, t;
-        for( q = 0; q <= num_states; ++q ) {
-            _F[q] = 0;
-        }
-
-        for( t = 0; t < num_transitions; ++t ) {
-            ++_F[K[t]];
-        }
-
-        for( q = 0; q < num_states; ++q ) {
-            _F[q+1] += _F[q];
-        }
-
-        for( t = num_transitions; t-- != 0; ) {
-            _A[--_F[K[t]]] = t;
-        }
-    }
-
-    /* Removal of irrelevant parts */
-    int rr = 0;   // number of reached states
-
-    void reach( int q ) {
-      int i = B.L[q];
-      if( i >= rr ){
-        B.E[i] = B.E[rr]; B.L[B.E[i]] = i;
-        B.E[rr] = q; B.L[q] = rr++; }
-    }
-
-    void rem_unreachable( int T[], int H[], int L[] ){
-        make_adjacent( T ); int i, j;
-        for( i = 0; i < rr; ++i ){
-            for( j = _F[B.E[i]]; j < _F[B.E[i] + 1]; ++j ){
-                reach( H[_A[j]] );
-            }
-        }
-        j = 0;
-        for( int t = 0; t < num_transitions; ++t ){
-            if( B.L[T[t]] < rr ){
-                H[j] = H[t]; L[j] = L[t];
-                T[j] = T[t]; ++j;
-            }
-        }
-        num_transitions = j; B.P[0] = rr; rr = 0;
-    }
-
     /* Minimization algorithm */
     void minimize_valmari(List<Int2IntMap> newMemD, boolean print, String prefix,StringBuilder log) throws Exception{
         IntSet qqq = new IntOpenHashSet();
         qqq.add(q0);
         newMemD = subsetConstruction(newMemD, qqq,print,prefix,log);
-        num_states = Q;
-        num_transitions = 0;
-        B = new Partition();
-        C = new Partition();
-
-        // Pre-size the arrays. This is much more efficient than creating new ArrayLists and then copying from them.
-        for(int q = 0; q != newMemD.size();++q){
-            num_transitions += newMemD.get(q).keySet().size();
-        }
+        ValmariMinimizer.forCurrentThread().minimize(this, newMemD);
+        canonized = false;
+    }
 
-        // tails of transitions
-        int[] T = new int[num_transitions];
-        // labels of transitions
-        int[] L = new int[num_transitions];
-        // heads of transitions
-        int[] H = new int[num_transitions];
+    /**
+     * Decides whether a deterministic automaton with Q states and the given number of transitions should be stored
+     * in transitionTable rather than d. An entry of d costs several tree nodes and a list, roughly 16 times the 4 bytes
+     * of a table entry, so the table pays off unless fewer than one in 16 entries is an actual transition.
+     */
+    boolean useTransitionTable(int numberOfTransitions) {
+        long size = (long) Q * alphabetSize;
+        return size <= Integer.MAX_VALUE - 8 && 16L * numberOfTransitions >= size;
+    }
 
-        int arrIndex = 0;
-        for(int q = 0; q != newMemD.size();++q){
-            for(int l : newMemD.get(q).keySet()) {
-                int p = newMemD.get(q).get(l);
-                H[arrIndex] = p;
-                T[arrIndex] = q;
-                L[arrIndex] = l;
-                arrIndex++;
+    /**
+     * Turns transitionTable or compressedTransitions, if one of them is being used, back into the transition function d.
+     */
+    public void ensureTransitionMap() {
+        if(compressedTransitions != null){
+            d = new ArrayList<>(Q);
+            for(int q = 0; q < Q; q++){
+                Int2ObjectRBTreeMap<IntList> currentStatesTransitions = new Int2ObjectRBTreeMap<>();
+                d.add(currentStatesTransitions);
+                IntList inputs = compressedTransitions.inputsOf(q);
+                for(int i = 0; i < inputs.size(); i++){
+                    int x = inputs.getInt(i);
+                    // a copy, since d can be changed, and compressedTransitions is shared
+                    currentStatesTransitions.put(x, new IntArrayList(compressedTransitions.successorsOf(q, x)));
+                }
             }
+            compressedTransitions = null;
+            return;
         }
-
-        B.init( num_states );
-        _A = new int[ num_transitions ]; _F = new int[ num_states+1 ];
-
-          //reach( q0 ); rem_unreachable( T, H );
-        for( int q = 0; q < num_states; ++q ){
-            if(O.getInt(q) != 0){
-                reach( q );
+        if(transitionTable == null) return;
+        d = new ArrayList<>(Q);
+        for(int q = 0; q < Q; q++){
+            Int2ObjectRBTreeMap<IntList> currentStatesTransitions = new Int2ObjectRBTreeMap<>();
+            d.add(currentStatesTransitions);
+            for(int x = 0; x < alphabetSize; x++){
+                int p = transitionTable[q * alphabetSize + x];
+                if(p != -1){
+                    IntList dest = new IntArrayList(1);
+                    dest.add(p);
+                    currentStatesTransitions.put(x, dest);
+                }
             }
         }
-        num_finalstates = rr; rem_unreachable( H, T, L);
+        transitionTable = null;
+    }
 
-        /* Make initial partition */
-        Partition.W = new int[ num_transitions+1 ]; Partition.M = new int[ num_transitions+1];
-        Partition.M[0] = num_finalstates;
-        if( num_finalstates != 0 ){ Partition.W[Partition.w++] = 0; B.split(); }
+    /**
+     * Returns the inputs on which state q has a transition, in increasing order. Works with d, transitionTable, and
+     * compressedTransitions.
+     */
+    private IntList inputsOf(int q) {
+        if(compressedTransitions != null) return compressedTransitions.inputsOf(q);
+        if(transitionTable == null) return new IntArrayList(d.get(q).keySet());
+        IntList inputs = new IntArrayList();
+        for(int x = 0; x < alphabetSize; x++){
+            if(transitionTable[q * alphabetSize + x] != -1) inputs.add(x);
+        }
+        return inputs;
+    }
 
-        /* Make transition partition */
-        C.init( num_transitions );
-        if( num_transitions != 0 ){
-            Arrays.sort(C.E, new Comparator<Integer>() {
-                @Override
-                public int compare(Integer a, Integer b)
-                {
+    /**
+     * Returns the states that q goes to on input x. Works with d, transitionTable, and compressedTransitions.
+     */
+    private IntList successorsOf(int q, int x) {
+        if(compressedTransitions != null) return compressedTransitions.successorsOf(q, x);
+        if(transitionTable == null) return d.get(q).get(x);
+        int p = transitionTable[q * alphabetSize + x];
+        return p == -1 ? null : IntLists.singleton(p);
+    }
 
-                    return L[a] - L[b];
-                }
-            });
-            C.z = Partition.M[0] = 0; int a = L[C.E[0]];
-            for( int i = 0; i < num_transitions; ++i ){
-                int t = C.E[i];
-                if( L[t] != a ){
-                    a = L[t]; C.P[C.z++] = i;
-                    C.F[C.z] = i; Partition.M[C.z] = 0;
+    /**
+     * @param nonZero - whether we look for the states with a non-zero output, or for the states with output 0
+     * @return for every state q, whether some word leads from q to such a state. When looking for output 0, a missing
+     * transition counts as well, since it leads to the implicit dead state.
+     */
+    private boolean[] statesReachingOutput(boolean nonZero) {
+        // the transitions reversed, in compressed form: the predecessors of p are
+        // predecessors[offsets[p]], ..., predecessors[offsets[p+1]-1]
+        IntArrayList sources = new IntArrayList(), targets = new IntArrayList();
+        boolean[] result = new boolean[Q];
+        IntArrayList queue = new IntArrayList();
+        for(int q = 0; q < Q; q++){
+            IntList inputs = inputsOf(q);
+            for(int i = 0; i < inputs.size(); i++){
+                IntList dest = successorsOf(q, inputs.getInt(i));
+                for(int j = 0; j < dest.size(); j++){
+                    sources.add(q);
+                    targets.add(dest.getInt(j));
                 }
-                C.S[t] = C.z; C.L[t] = i;
             }
-            C.P[C.z++] = num_transitions;
-        }
-
-        /* Split blocks and cords */
-        make_adjacent( H );
-        int b = 1, c = 0;
-        while( c < C.z ){
-            for(int i = C.F[c]; i < C.P[c]; ++i ){
-                B.mark( T[C.E[i]] );
-            }
-            B.split(); ++c;
-            while( b < B.z ){
-                for(int i = B.F[b]; i < B.P[b]; ++i ){
-                    for(int j = _F[B.E[i]];j < _F[B.E[i]+1]; ++j){
-                        C.mark( _A[j] );
-                    }
-                }
-                C.split(); ++b;
+            if((O.getInt(q) != 0) == nonZero || (!nonZero && inputs.size() < alphabetSize)){
+                result[q] = true;
+                queue.add(q);
             }
         }
-
-        /* Turn the result back to Walnut format for Automata */
-        Q = B.z;
-
-        q0 = B.S[q0];
-        O = new IntArrayList(Q);
-        for( int q = 0; q < B.z; ++q ){
-            if( B.F[q] < num_finalstates ){
-                O.add(1);
-            }
-            else {
-                O.add(0);
-            }
+        int[] offsets = new int[Q + 1];
+        for(int i = 0; i < targets.size(); i++){
+            offsets[targets.getInt(i) + 1]++;
         }
-
-        d = new ArrayList<>(Q);
-        for( int q = 0; q < Q;++q){
-            d.add(new Int2ObjectRBTreeMap<>());
+        for(int q = 0; q < Q; q++){
+            offsets[q + 1] += offsets[q];
         }
-        for( int t = 0; t < num_transitions; ++t ){
-            if( B.L[T[t]] == B.F[B.S[T[t]]] ){
-                int q = B.S[T[t]];
-                int l = L[t];
-                int p = B.S[H[t]];
-                if(!d.get(q).containsKey(l)){
-                    d.get(q).put(l, new IntArrayList());
+        int[] next = Arrays.copyOf(offsets, Q);
+        int[] predecessors = new int[sources.size()];
+        for(int i = 0; i < sources.size(); i++){
+            predecessors[next[targets.getInt(i)]++] = sources.getInt(i);
+        }
+        for(int i = 0; i < queue.size(); i++){
+            int p = queue.getInt(i);
+            for(int j = offsets[p]; j < offsets[p + 1]; j++){
+                int q = predecessors[j];
+                if(!result[q]){
+                    result[q] = true;
+                    queue.add(q);
                 }
-                d.get(q).get(l).add(p);
             }
         }
-        canonized = false;
+        return result;
+    }
+
+    /**
+     * Returns the state that q goes to on input x, or -1 if there is none. Only for deterministic automata.
+     */
+    private int successorOf(int q, int x) {
+        if(transitionTable != null) return transitionTable[q * alphabetSize + x];
+        if(compressedTransitions != null){
+            int k = compressedTransitions.indexOf(q, x);
+            return k == -1 ? -1 : compressedTransitions.targets[compressedTransitions.letterOffsets[k]];
+        }
+        IntList dest = d.get(q).get(x);
+        return dest == null || dest.isEmpty() ? -1 : dest.getInt(0);
     }
 
     /**
@@ -693,6 +676,18 @@ public class Automaton {
             if(label != null && label.size() == A.size())
                 M.label.add(label.get(i));
         }
+        if(transitionTable != null){
+            M.O.addAll(O);
+            M.d = null;
+            M.transitionTable = transitionTable.clone();
+            return M;
+        }
+        if(compressedTransitions != null){
+            M.O.addAll(O);
+            M.d = null;
+            M.compressedTransitions = compressedTransitions;
+            return M;
+        }
         for(int q = 0;q < Q;q++){
             M.O.add(O.getInt(q));
             M.d.add(new Int2ObjectRBTreeMap<>());
@@ -730,6 +725,105 @@ public class Automaton {
      */
     public void quantify(Set<String> listOfLabelsToQuantify, boolean print, String prefix,StringBuilder log)throws Exception{
         quantifyHelper(listOfLabelsToQuantify,print,prefix,log);
+        fixLeadingOrTrailingZeros(print,prefix,log);
+    }
+
+    /**
+     * This method computes the universal quantification of this automaton over the inputs with labels in
+     * listOfLabelsToQuantify, that is not(), quantify(listOfLabelsToQuantify) and not().
+     * When every input is quantified, the result is the true automaton exactly when every word that is a valid
+     * representation in the number systems of the inputs (see applyAllRepresentations) is accepted. We then check this
+     * inclusion with isIncludedIn, which stops at the first word that is not accepted, instead of complementing this
+     * automaton and building the projection.
+     * @param listOfLabelsToQuantify must contain at least one element. listOfLabelsToQuantify must be a subset of this.label.
+     */
+    public void forAll(Set<String> listOfLabelsToQuantify, boolean print, String prefix, StringBuilder log)throws Exception{
+        if(TRUE_FALSE_AUTOMATON || label == null || label.size() != A.size() ||
+            listOfLabelsToQuantify.size() != A.size() || !label.containsAll(listOfLabelsToQuantify)){
+            not(print,prefix,log);
+            quantify(listOfLabelsToQuantify,print,prefix,log);
+            not(print,prefix,log);
+            return;
+        }
+
+        long timeBefore = System.currentTimeMillis();
+        if(print){
+            String msg = prefix + "checking that every representation is accepted:" + Q + " states";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+        TRUE_AUTOMATON = validRepresentations(A, NS, label).isIncludedIn(this);
+        TRUE_FALSE_AUTOMATON = true;
+        clear();
+        long timeAfter = System.currentTimeMillis();
+        if(print){
+            String msg = prefix + "checked that every representation is accepted:" + TRUE_AUTOMATON + " - " + (timeAfter-timeBefore) + "ms";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+    }
+
+    /**
+     * Decides the sentence "quantifier labels (this op M)", where labels are all the labels of this op M, without
+     * building this op M: the sentence is true exactly when some word (for E), or every valid representation (for A),
+     * is accepted by this op M. So we look for a witness in the product of this automaton, M, and, when the outcome
+     * depends on it, the automaton of valid representations, and stop as soon as one is found, before the
+     * product is built. Neither this automaton nor M is changed.
+     * @param quantifier - E or A
+     * @param op - one of &, |, ^, =>, <=>
+     * @return the true or false automaton, or null if the sentence cannot be decided this way. This is the case when
+     * labels are not all the labels of this op M, or when one of the automata is a true/false automaton, has inputs
+     * without labels, or is not deterministic.
+     */
+    public Automaton decideSentence(String quantifier, Set<String> labels, String op, Automaton M) throws Exception{
+        if(!quantifier.equals("E") && !quantifier.equals("A"))return null;
+        if(!op.equals("&") && !op.equals("|") && !op.equals("^") && !op.equals("=>") && !op.equals("<=>"))return null;
+        if(TRUE_FALSE_AUTOMATON || M.TRUE_FALSE_AUTOMATON)return null;
+        if(label == null || label.size() != A.size() || M.label == null || M.label.size() != M.A.size())return null;
+        Set<String> allLabels = new HashSet<>(label);
+        allLabels.addAll(M.label);
+        if(!allLabels.equals(labels))return null;
+        if(!isDeterministic() || !M.isDeterministic())return null;
+
+        // the two automata over the same inputs, in the same order
+        Automaton first = withInputsOf(M).clone(), second = M.withInputsOf(this).clone();
+        first.sortLabel();
+        second.sortLabel();
+        List<Automaton> automata = new ArrayList<>();
+        automata.add(first);
+        automata.add(second);
+        boolean valid = quantifier.equals("A") || !op.equals("&");
+        if(valid){
+            List<NumberSystem> numberSystems = new ArrayList<>();
+            for(int i = 0; i < first.A.size(); i++){
+                numberSystems.add(first.NS.get(i) != null ? first.NS.get(i) : second.NS.get(i));
+            }
+            automata.add(validRepresentations(first.A, numberSystems, first.label));
+        }
+        if(!canTakeProductOf(automata))return null;
+
+        // the output of op, for every pair of accepting (1) or rejecting (0) states
+        OutputKernel kernel = productOutput(op);
+        int[][] output = new int[2][2];
+        for(int a = 0; a < 2; a++){
+            for(int b = 0; b < 2; b++){
+                output[a][b] = kernel.apply(a, b);
+            }
+        }
+        if(quantifier.equals("E")){
+            return new Automaton(productReaches(automata, (o) ->
+                (output[o[0] != 0 ? 1 : 0][o[1] != 0 ? 1 : 0] != 0 && (!valid || o[2] != 0)) ? 1 : 0, op.equals("&")));
+        }
+        // a valid representation that this op M rejects
+        return new Automaton(!productReaches(automata, (o) ->
+            (output[o[0] != 0 ? 1 : 0][o[1] != 0 ? 1 : 0] == 0 && o[2] != 0) ? 1 : 0, false));
+    }
+
+    /**
+     * The last step of quantify: if every input has a number system, and they are all msd or all lsd, we
+     * address the issue of leading or trailing zeros.
+     */
+    private void fixLeadingOrTrailingZeros(boolean print, String prefix,StringBuilder log)throws Exception{
         if(TRUE_FALSE_AUTOMATON)return;
 
         boolean isMsd = true;
@@ -807,6 +901,7 @@ public class Automaton {
         //now we remove those indices in listOfInputsToQuantify from A,T,label, and allInputs
         UtilityMethods.removeIndices(A,listOfInputsToQuantify);
         encoder = null;
+        int oldAlphabetSize = alphabetSize;
         alphabetSize = 1;
         for(List<Integer> x:A)
             alphabetSize*=x.size();
@@ -818,19 +913,24 @@ public class Automaton {
         List<Integer> permutation = new ArrayList<>();
         for(List<Integer> i:allInputs)
             permutation.add(encode(i));
-        List<Int2ObjectRBTreeMap<IntList>> new_d = new ArrayList<>();
+        CompressedTransitions.Builder new_d = new CompressedTransitions.Builder();
         for(int q = 0; q < Q;q++){
-            Int2ObjectRBTreeMap<IntList> newMemDransitionFunction = new Int2ObjectRBTreeMap<>();
-            new_d.add(newMemDransitionFunction);
-            for(int x:d.get(q).keySet()){
+            if(transitionTable != null){
+                for(int x = 0; x < oldAlphabetSize; x++){
+                    int p = transitionTable[q * oldAlphabetSize + x];
+                    if(p != -1) new_d.add(q, permutation.get(x), p);
+                }
+                continue;
+            }
+            for(int x:inputsOf(q)){
                 int y = permutation.get(x);
-                if(newMemDransitionFunction.containsKey(y))
-                    UtilityMethods.addAllWithoutRepetition(newMemDransitionFunction.get(y),d.get(q).get(x));
-                else
-                    newMemDransitionFunction.put(y,new IntArrayList(d.get(q).get(x)));
+                for(int p:successorsOf(q, x))
+                    new_d.add(q, y, p);
             }
         }
-        d = new_d;
+        d = null;
+        transitionTable = null;
+        compressedTransitions = new_d.build(Q);
         minimize(null, print,prefix +" ",log);
         long timeAfter = System.currentTimeMillis();
         if(print){
@@ -862,22 +962,17 @@ public class Automaton {
         }
 
         // We change the direction of transitions first.
-        List<Int2ObjectRBTreeMap<IntList>> new_d = new ArrayList<>();
-        for(int q = 0; q < Q;q++)new_d.add(new Int2ObjectRBTreeMap<>());
+        CompressedTransitions.Builder new_d = new CompressedTransitions.Builder();
         for(int q = 0 ; q < Q;q++){
-            for(int x:d.get(q).keySet()){
-                for(int dest:d.get(q).get(x)){
-                    if(new_d.get(dest).containsKey(x))
-                        new_d.get(dest).get(x).add(q);
-                    else{
-                        IntList destinationSet = new IntArrayList();
-                        destinationSet.add(q);
-                        new_d.get(dest).put(x, destinationSet);
-                    }
+            for(int x:inputsOf(q)){
+                for(int dest:successorsOf(q, x)){
+                    new_d.add(dest, x, q);
                 }
             }
         }
-        d = new_d;
+        d = null;
+        transitionTable = null;
+        compressedTransitions = new_d.build(Q);
         IntSet setOfFinalStates = new IntOpenHashSet();
         /**final states become non final*/
         for(int q = 0 ; q < Q;q++){
@@ -910,7 +1005,7 @@ public class Automaton {
                 else {
                     newName = "msd" + suffix;
                 }
-                NS.set(i, new NumberSystem(newName));
+                NS.set(i, NumberSystem.forName(newName));
             }
         }
 
@@ -935,6 +1030,7 @@ public class Automaton {
      * @throws Exception
      */
     public void reverseWithOutput(boolean reverseMsd, boolean print, String prefix, StringBuilder log) throws Exception {
+        ensureTransitionMap();
         if (TRUE_FALSE_AUTOMATON) {
             return;
         }
@@ -1041,13 +1137,14 @@ public class Automaton {
                     else {
                         newName = "msd" + suffix;
                     }
-                    NS.set(i, new NumberSystem(newName));
+                    NS.set(i, NumberSystem.forName(newName));
                 }
             }
 
             minimizeSelfWithOutput(print, prefix+" ", log);
 
             if (addedDeadState) {
+                ensureTransitionMap();
                 // remove all states that have an output of minOutput
                 HashSet<Integer> statesRemoved = new HashSet<>();
 
@@ -1193,6 +1290,7 @@ public class Automaton {
      */
     private void convertMsdBaseToExponent(int exponent, boolean print,
                                           String prefix, StringBuilder log) throws Exception {
+        ensureTransitionMap();
         try {
 
             String nsName = NS.get(0).getName();
@@ -1257,7 +1355,7 @@ public class Automaton {
 
             // change number system too.
 
-            NS.set(0, new NumberSystem("msd_" + (int)(Math.pow(base, exponent))));
+            NS.set(0, NumberSystem.forName("msd_" + (int)(Math.pow(base, exponent))));
 
             ArrayList<Integer> ints = new ArrayList<>();
             for (int i = 0; i < (int)(Math.pow(base, exponent)); i++) {
@@ -1289,6 +1387,7 @@ public class Automaton {
      */
     private void convertLsdBaseToRoot(int root, int exponent, boolean print,
                                           String prefix, StringBuilder log) throws Exception {
+        ensureTransitionMap();
 
         try {
             String nsName = NS.get(0).getName();
@@ -1432,7 +1531,7 @@ public class Automaton {
             canonized = false;
 
             // change number system too.
-            NS.set(0, new NumberSystem("lsd_" + root));
+            NS.set(0, NumberSystem.forName("lsd_" + root));
 
             ArrayList<Integer> ints = new ArrayList<>();
             for (int i = 0; i < root; i++) {
@@ -1478,6 +1577,37 @@ public class Automaton {
         boolean print,
         String prefix,
         StringBuilder log) throws Exception {
+        return crossProduct(M, op, null, print, prefix, log);
+    }
+
+    /**
+     * Same as crossProduct(M, op, print, prefix, log), except that when labelsToDrop is not null, the inputs with
+     * these labels are left out of N as its transitions are added. N is then the cross product already projected
+     * onto the remaining inputs, which is in general non deterministic. See andThenQuantify.
+     * @param labelsToDrop - labels of N, not all of them
+     */
+    private Automaton crossProduct(
+        Automaton M,
+        String op,
+        Set<String> labelsToDrop,
+        boolean print,
+        String prefix,
+        StringBuilder log) throws Exception {
+        return crossProduct(M, op, productOutput(op), labelsToDrop, print, prefix, log);
+    }
+
+    /**
+     * Same as crossProduct(M, op, labelsToDrop, print, prefix, log), except that the output of N is given by output,
+     * rather than by op. op is then only used to leave out useless states, for "&" and "=>", and can be null.
+     */
+    private Automaton crossProduct(
+        Automaton M,
+        String op,
+        OutputKernel output,
+        Set<String> labelsToDrop,
+        boolean print,
+        String prefix,
+        StringBuilder log) throws Exception {
 
         if (this.TRUE_FALSE_AUTOMATON || M.TRUE_FALSE_AUTOMATON) {
             throw new Exception("Invalid use of the crossProduct method: " +
@@ -1547,21 +1677,57 @@ public class Automaton {
             N.alphabetSize *= i.size();
         }
 
-        List<Integer> allInputsOfN = new ArrayList<>();
-        for (int i = 0; i < alphabetSize; i++) {
-            for (int j = 0; j < M.alphabetSize; j++) {
-                List<Integer> inputForN = joinTwoInputsForCrossProduct(decode(i),M.decode(j),sameInputsInMAndThis);
-                if(inputForN == null)
-                    allInputsOfN.add(-1);
-                else
-                    allInputsOfN.add(N.encode(inputForN));
+        // the input of N for every pair of inputs of this and M, worked out as they are needed
+        CrossProductAlphabet inputsOfN = new CrossProductAlphabet(this, M, sameInputsInMAndThis);
+        InputProjection projection = null;
+        if (labelsToDrop != null) {
+            boolean[] dropped = new boolean[N.label.size()];
+            List<Integer> droppedInputs = new ArrayList<>();
+            for (int i = 0; i < dropped.length; i++) {
+                dropped[i] = labelsToDrop.contains(N.label.get(i));
+                if (dropped[i]) droppedInputs.add(i);
+            }
+            projection = new InputProjection(N.A, dropped);
+            UtilityMethods.removeIndices(N.A, droppedInputs);
+            UtilityMethods.removeIndices(N.label, droppedInputs);
+            UtilityMethods.removeIndices(N.NS, droppedInputs);
+            N.alphabetSize = 1;
+            for(List<Integer> i : N.A) {
+                N.alphabetSize *= i.size();
             }
         }
-        ArrayList<List<Integer>> statesList = new ArrayList<>();
-        Map<List<Integer>,Integer> statesHash = new HashMap<>();
+        /**
+         * The state (p, q) of N is packed into the long ((long)p << 32) | q. statesList holds the states of N in the order
+         * they are found, and statesHash maps them to their number.
+         */
+        LongArrayList statesList = new LongArrayList();
+        Long2IntOpenHashMap statesHash = new Long2IntOpenHashMap();
+        statesHash.defaultReturnValue(-1);
         N.q0 = 0;
-        statesList.add(Arrays.asList(q0, M.q0));
-        statesHash.put(Arrays.asList(q0, M.q0), 0);
+        statesList.add(pairOfStates(q0, M.q0));
+        statesHash.put(pairOfStates(q0, M.q0), 0);
+        /**
+         * When both automata are stored in transitionTable, the cross product is deterministic as well, and we build
+         * its transitionTable row by row. Otherwise we collect its transitions in compressed form.
+         */
+        IntArrayList table = (transitionTable != null && M.transitionTable != null && projection == null) ?
+            new IntArrayList() : null;
+        CompressedTransitions.Builder transitions = table == null ? new CompressedTransitions.Builder() : null;
+        /**
+         * For "&", a state (p, q) where p or q cannot lead to acceptance can never lead to acceptance either. For "=>",
+         * the same goes when p cannot lead to rejection and q cannot lead to acceptance. We never add such states,
+         * instead of building them here and having minimize remove them afterwards.
+         */
+        boolean[] usefulInThis = null, usefulInM = null;
+        if ("&".equals(op)) {
+            usefulInThis = statesReachingOutput(true);
+            usefulInM = M.statesReachingOutput(true);
+        }
+        else if ("=>".equals(op)) {
+            usefulInThis = statesReachingOutput(false);
+            usefulInM = M.statesReachingOutput(true);
+        }
+        boolean conjunctive = "&".equals(op);
         int currentState = 0;
         while (currentState < statesList.size()) {
 
@@ -1577,86 +1743,49 @@ public class Automaton {
                 }
             }
 
-            List<Integer> s = statesList.get(currentState);
+            // the first element is a state in this, and the second element is a state in the other Automaton.
+            long s = statesList.getLong(currentState);
+            int p = (int) (s >>> 32);
+            int q = (int) s;
+            N.O.add(output.apply(O.getInt(p), M.O.getInt(q)));
 
-            // s must be an array of length 2, where the first element is a state in this, and the second element is a
-            // state in the other Automaton.
-            int p = s.get(0);
-            int q = s.get(1);
-            Int2ObjectRBTreeMap<IntList> thisStatesTransitions = new Int2ObjectRBTreeMap<>();
-            N.d.add(thisStatesTransitions);
-            switch(op){
-                case "&":
-                    N.O.add((O.getInt(p) != 0 && M.O.getInt(q) != 0) ? 1 : 0);
-                    break;
-                case "|":
-                    N.O.add((O.getInt(p) != 0 || M.O.getInt(q) != 0) ? 1 : 0);
-                    break;
-                case "^":
-                    N.O.add(((O.getInt(p) != 0 && M.O.getInt(q) == 0)||(O.getInt(p) == 0 && M.O.getInt(q) != 0)) ? 1 : 0);
-                    break;
-                case "=>":
-                    N.O.add((O.getInt(p) == 0 || M.O.getInt(q) != 0) ? 1 : 0);
-                    break;
-                case "<=>":
-                    N.O.add(((O.getInt(p) == 0 && M.O.getInt(q) == 0) || (O.getInt(p) != 0 && M.O.getInt(q) != 0)) ? 1 : 0);
-                    break;
-                case "<":
-                    N.O.add((O.getInt(p) < M.O.getInt(q)) ? 1 : 0);
-                    break;
-                case ">":
-                    N.O.add((O.getInt(p) > M.O.getInt(q)) ? 1 : 0);
-                    break;
-                case "=":
-                    N.O.add((O.getInt(p) == M.O.getInt(q)) ? 1 : 0);
-                    break;
-                case "!=":
-                    N.O.add((O.getInt(p) != M.O.getInt(q)) ? 1 : 0);
-                    break;
-                case "<=":
-                    N.O.add((O.getInt(p) <= M.O.getInt(q)) ? 1 : 0);
-                    break;
-                case ">=":
-                    N.O.add((O.getInt(p) >= M.O.getInt(q)) ? 1 : 0);
-                    break;
-                case "+":
-                    N.O.add(O.getInt(p) + M.O.getInt(q));
-                    break;
-                case "-":
-                    N.O.add(O.getInt(p) - M.O.getInt(q));
-                    break;
-                case "*":
-                    N.O.add(O.getInt(p) * M.O.getInt(q));
-                    break;
-                case "/":
-                    if(M.O.getInt(q) == 0)throw new Exception("division by zero");
-                    N.O.add(Math.floorDiv(O.getInt(p), M.O.getInt(q)));
-                    break;
-                case "combine":
-                    N.O.add((M.O.getInt(q) == 1) ? combineOutputs.getInt(combineIndex) : O.getInt(p));
-                    break;
-                case "first":
-                    N.O.add(O.getInt(p) == 0 ? M.O.getInt(q) : O.getInt(p));
-                    break;
-                case "if_other":
-                    N.O.add(M.O.getInt(q) != 0 ? O.getInt(p) : 0);
-                    break;
+            if (table != null) {
+                int row = table.size();
+                for (int z = 0; z < N.alphabetSize; z++) {
+                    table.add(-1);
+                }
+                for (int x = 0; x < alphabetSize; x++) {
+                    int dest1 = transitionTable[p * alphabetSize + x];
+                    if (dest1 == -1) continue;
+                    for (int y = 0; y < M.alphabetSize; y++) {
+                        int dest2 = M.transitionTable[q * M.alphabetSize + y];
+                        if (dest2 == -1) continue;
+                        if (usefulInThis != null && isUselessPair(usefulInThis[dest1], usefulInM[dest2], conjunctive)) continue;
+                        int z = inputsOfN.join(x, y);
+                        if (z != -1) {
+                            table.set(row + z, addPairOfStates(statesList, statesHash, dest1, dest2));
+                        }
+                    }
+                }
+                currentState++;
+                continue;
             }
 
-            for(int x:d.get(p).keySet()){
-                for(int y:M.d.get(q).keySet()){
-                    int z = allInputsOfN.get(x*M.alphabetSize+y);
+            IntList inputsOfQ = M.inputsOf(q);
+            IntList[] successorsOfQ = new IntList[inputsOfQ.size()];
+            for(int j = 0; j < successorsOfQ.length; j++){
+                successorsOfQ[j] = M.successorsOf(q, inputsOfQ.getInt(j));
+            }
+            for(int x:inputsOf(p)){
+                IntList successorsOfP = successorsOf(p, x);
+                for(int j = 0; j < successorsOfQ.length; j++){
+                    int z = inputsOfN.join(x, inputsOfQ.getInt(j));
                     if(z != -1){
-                        IntList dest = new IntArrayList();
-                        thisStatesTransitions.put(z, dest);
-                        for(int dest1 : d.get(p).get(x)) {
-                            for(int dest2 : M.d.get(q).get(y)) {
-                                List<Integer> dest3 = Arrays.asList(dest1, dest2);
-                                if(!statesHash.containsKey(dest3)){
-                                    statesList.add(dest3);
-                                    statesHash.put(dest3, statesList.size()-1);
-                                }
-                                dest.add((int)statesHash.get(dest3));
+                        if(projection != null) z = projection.apply(z);
+                        for(int dest1 : successorsOfP) {
+                            for(int dest2 : successorsOfQ[j]) {
+                                if (usefulInThis != null && isUselessPair(usefulInThis[dest1], usefulInM[dest2], conjunctive)) continue;
+                                transitions.add(currentState, z, addPairOfStates(statesList, statesHash, dest1, dest2));
                             }
                         }
                     }
@@ -1665,6 +1794,13 @@ public class Automaton {
             currentState++;
         }
         N.Q = statesList.size();
+        N.d = null;
+        if (table != null) {
+            N.transitionTable = table.toIntArray();
+        }
+        else {
+            N.compressedTransitions = transitions.build(N.Q);
+        }
         long timeAfter = System.currentTimeMillis();
         if(print){
             String msg = prefix + "computed cross product:" + N.Q + " states - "+(timeAfter-timeBefore)+"ms";
@@ -1675,46 +1811,363 @@ public class Automaton {
     }
 
     /**
-     * @param M
-     * @return this automaton and M.
-     * @throws Exception
+     * @return whether a state (p, q) of a cross product can be left out, given whether p and q are useful
+     * (see crossProduct). In a conjunctive product both have to be useful, otherwise one of them is enough.
+     */
+    private static boolean isUselessPair(boolean pIsUseful, boolean qIsUseful, boolean conjunctive) {
+        return conjunctive ? !(pIsUseful && qIsUseful) : !(pIsUseful || qIsUseful);
+    }
+
+    private static long pairOfStates(int p, int q) {
+        return ((long) p << 32) | (q & 0xFFFFFFFFL);
+    }
 
+    /**
+     * @return the number of the state (p, q) of a cross product, adding it to statesList and statesHash if it is new.
      */
-    public Automaton and(
-        Automaton M,
-        boolean print,
-        String prefix,
-        StringBuilder log) throws Exception {
-        if((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) &&
-            (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) {
-            return new Automaton(true);
-        }
+    private static int addPairOfStates(LongArrayList statesList, Long2IntOpenHashMap statesHash, int p, int q) {
+        long pair = pairOfStates(p, q);
+        int number = statesHash.putIfAbsent(pair, statesList.size());
+        if (number == -1) {
+            number = statesList.size();
+            statesList.add(pair);
+        }
+        return number;
+    }
 
-        if((TRUE_FALSE_AUTOMATON && !TRUE_AUTOMATON) ||
-            (M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON)) {
-            return new Automaton(false);
-        }
+    /**
+     * Computes the output of a state (p, q) of a cross product from the output of p and the output of q.
+     */
+    private interface OutputKernel {
+        int apply(int a, int b) throws Exception;
+    }
 
-        if(TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) {
-            return M;
+    /**
+     * @return the OutputKernel of the crossProduct operator op. It is looked up once per cross product, rather than
+     * once per state.
+     */
+    private OutputKernel productOutput(String op) throws Exception {
+        switch(op){
+            case "&":
+                return (a, b) -> (a != 0 && b != 0) ? 1 : 0;
+            case "|":
+                return (a, b) -> (a != 0 || b != 0) ? 1 : 0;
+            case "^":
+                return (a, b) -> ((a != 0 && b == 0)||(a == 0 && b != 0)) ? 1 : 0;
+            case "=>":
+                return (a, b) -> (a == 0 || b != 0) ? 1 : 0;
+            case "<=>":
+                return (a, b) -> ((a == 0 && b == 0) || (a != 0 && b != 0)) ? 1 : 0;
+            case "<":
+                return (a, b) -> (a < b) ? 1 : 0;
+            case ">":
+                return (a, b) -> (a > b) ? 1 : 0;
+            case "=":
+                return (a, b) -> (a == b) ? 1 : 0;
+            case "!=":
+                return (a, b) -> (a != b) ? 1 : 0;
+            case "<=":
+                return (a, b) -> (a <= b) ? 1 : 0;
+            case ">=":
+                return (a, b) -> (a >= b) ? 1 : 0;
+            case "+":
+                return (a, b) -> a + b;
+            case "-":
+                return (a, b) -> a - b;
+            case "*":
+                return (a, b) -> a * b;
+            case "/":
+                return (a, b) -> {
+                    if(b == 0)throw new Exception("division by zero");
+                    return Math.floorDiv(a, b);
+                };
+            case "combine":
+                int combineOutput = combineOutputs.getInt(combineIndex);
+                return (a, b) -> (b == 1) ? combineOutput : a;
+            case "first":
+                return (a, b) -> a == 0 ? b : a;
+            case "if_other":
+                return (a, b) -> b != 0 ? a : 0;
+            default:
+                throw new Exception("Invalid use of the crossProduct method: unknown operator " + op);
         }
+    }
 
-        if(M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON) {
-            return this;
+    /**
+     * Computes the output of a state of productOf from the outputs of its components. A component that has no
+     * transition any more has output 0.
+     */
+    private interface TupleOutputKernel {
+        int apply(int[] outputs);
+    }
+
+    private static TupleOutputKernel unionOutput() {
+        return (o) -> {
+            for (int output : o) {
+                if (output != 0) return 1;
+            }
+            return 0;
+        };
+    }
+
+    private static TupleOutputKernel intersectionOutput() {
+        return (o) -> {
+            for (int output : o) {
+                if (output == 0) return 0;
+            }
+            return 1;
+        };
+    }
+
+    /**
+     * @return true if productOf can be used on the given automata: none of them is a true/false automaton, they are
+     * all deterministic, and they all have the same alphabet A, in the same order.
+     */
+    private static boolean canTakeProductOf(List<Automaton> automata) {
+        for (Automaton M : automata) {
+            if (M.TRUE_FALSE_AUTOMATON || !M.A.equals(automata.get(0).A) || !M.isDeterministic()) {
+                return false;
+            }
         }
+        return true;
+    }
 
+    /**
+     * The synchronous product of several deterministic automata with the same alphabet, in one pass: the states are the
+     * reachable tuples of states of the automata, and their outputs are given by output. No intermediate product of
+     * two automata is built.
+     * <br>
+     * A component without a transition on some input is considered to be in a dead state with output 0, which
+     * we store as -1 in the tuple. If intersection is true, a tuple with a dead component can never be accepted,
+     * so it is dropped altogether. A tuple whose components are all dead is always dropped.
+     * The initial tuple is always kept, even when some of its components are -1.
+     * @param automata - as checked by canTakeProductOf
+     * @return the product, with the alphabet, number systems, and labels of the first automaton
+     */
+    private static Automaton productOf(
+            List<Automaton> automata, TupleOutputKernel output, boolean intersection,
+            boolean print, String prefix, StringBuilder log) {
+        Automaton first = automata.get(0);
+        int k = automata.size();
         long timeBefore = System.currentTimeMillis();
-        if(print) {
-            String msg = prefix + "computing &:" + Q + " states - " + M.Q + " states";
+        if (print) {
+            StringBuilder sizes = new StringBuilder();
+            for (Automaton M : automata) {
+                sizes.append(sizes.length() == 0 ? "" : " - ").append(M.Q).append(" states");
+            }
+            String msg = prefix + "Computing product:" + sizes;
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
         }
 
-        Automaton N = crossProduct(M,"&",print,prefix,log);
-        N.minimize(null, print,prefix+" ",log);
+        Automaton N = new Automaton();
+        for (int i = 0; i < first.A.size(); i++) {
+            N.A.add(first.A.get(i));
+            N.NS.add(first.NS.get(i));
+            if (first.label != null && first.label.size() == first.A.size()) {
+                N.label.add(first.label.get(i));
+            }
+        }
+        N.alphabetSize = first.alphabetSize;
+        N.q0 = 0;
 
-        long timeAfter = System.currentTimeMillis();
-        if(print){
+        boolean dense = true;
+        for (Automaton M : automata) {
+            dense &= M.transitionTable != null;
+        }
+        IntArrayList table = dense ? new IntArrayList() : null;
+        CompressedTransitions.Builder transitions = dense ? null : new CompressedTransitions.Builder();
+
+        /**
+         * A component in a state that cannot lead to a non-zero output behaves like the dead state from then on, since
+         * every TupleOutputKernel treats output 0 and dead components alike. So we replace such states by -1, which
+         * merges tuples that only differ there, and drops them altogether in an intersection.
+         */
+        boolean[][] useful = new boolean[k][];
+        for (int i = 0; i < k; i++) {
+            useful[i] = automata.get(i).statesReachingOutput(true);
+        }
+
+        SubsetTable states = new SubsetTable();
+        int[] tuple = new int[k];
+        for (int i = 0; i < k; i++) {
+            tuple[i] = useful[i][automata.get(i).q0] ? automata.get(i).q0 : -1;
+        }
+        states.getOrAdd(tuple);
+        int[] outputs = new int[k];
+        int currentState = 0;
+        while (currentState < states.size()) {
+            if (print) {
+                int statesSoFar = currentState + 1;
+                long timeAfter = System.currentTimeMillis();
+                if (statesSoFar == 1e2 || statesSoFar == 1e3 || statesSoFar % 1e4 == 0) {
+                    String msg = prefix + "  Progress: Added " + statesSoFar + " states - "
+                            + (states.size() - statesSoFar) + " states left in queue - "
+                            + states.size() + " reachable states - " + (timeAfter-timeBefore)+"ms";
+                    log.append(msg + UtilityMethods.newLine());
+                    System.out.println(msg);
+                }
+            }
+
+            int[] s = states.get(currentState);
+            for (int i = 0; i < k; i++) {
+                outputs[i] = s[i] == -1 ? 0 : automata.get(i).O.getInt(s[i]);
+            }
+            N.O.add(output.apply(outputs));
+
+            int row = dense ? table.size() : 0;
+            if (dense) {
+                for (int x = 0; x < N.alphabetSize; x++) {
+                    table.add(-1);
+                }
+            }
+            int[] inputs = dense ? null : inputsOfTuple(automata, s);
+            int count = dense ? N.alphabetSize : inputs.length;
+            for (int j = 0; j < count; j++) {
+                int x = dense ? j : inputs[j];
+                int[] next = new int[k];
+                boolean alive = false, dead = false;
+                for (int i = 0; i < k; i++) {
+                    next[i] = s[i] == -1 ? -1 : automata.get(i).successorOf(s[i], x);
+                    if (next[i] != -1 && !useful[i][next[i]]) next[i] = -1;
+                    alive |= next[i] != -1;
+                    dead |= next[i] == -1;
+                }
+                if (!alive || (intersection && dead)) continue;
+                int p = states.getOrAdd(next);
+                if (dense) {
+                    table.set(row + x, p);
+                }
+                else {
+                    transitions.add(currentState, x, p);
+                }
+            }
+            currentState++;
+        }
+
+        N.Q = states.size();
+        N.d = null;
+        if (dense) {
+            N.transitionTable = table.toIntArray();
+        }
+        else {
+            N.compressedTransitions = transitions.build(N.Q);
+        }
+        long timeAfter = System.currentTimeMillis();
+        if(print){
+            String msg = prefix + "computed product:" + N.Q + " states - "+(timeAfter-timeBefore)+"ms";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+        return N;
+    }
+
+    /**
+     * Without transition tables, only the inputs on which some component of a tuple has a transition can lead
+     * anywhere from it, and the alphabet may be far too large to go through.
+     * @return these inputs for the tuple s of states of automata (-1 for none), in increasing order.
+     */
+    private static int[] inputsOfTuple(List<Automaton> automata, int[] s) {
+        IntArrayList union = new IntArrayList();
+        for (int i = 0; i < s.length; i++) {
+            if (s[i] != -1) union.addAll(automata.get(i).inputsOf(s[i]));
+        }
+        return SubsetTable.canonical(union);
+    }
+
+    /**
+     * Explores the same tuples as productOf(automata, output, intersection, ...), in the same order, but builds no
+     * automaton, and stops at the first tuple with a non-zero output.
+     * @param automata - as checked by canTakeProductOf
+     * @return whether the product has a reachable state with a non-zero output.
+     */
+    private static boolean productReaches(List<Automaton> automata, TupleOutputKernel output, boolean intersection) {
+        int k = automata.size();
+        boolean[][] useful = new boolean[k][];
+        for (int i = 0; i < k; i++) {
+            useful[i] = automata.get(i).statesReachingOutput(true);
+        }
+
+        SubsetTable states = new SubsetTable();
+        int[] tuple = new int[k];
+        for (int i = 0; i < k; i++) {
+            tuple[i] = useful[i][automata.get(i).q0] ? automata.get(i).q0 : -1;
+        }
+        states.getOrAdd(tuple);
+        int[] outputs = new int[k];
+        int alphabetSize = automata.get(0).alphabetSize;
+        boolean dense = true;
+        for (Automaton M : automata) {
+            dense &= M.transitionTable != null;
+        }
+        for (int currentState = 0; currentState < states.size(); currentState++) {
+            int[] s = states.get(currentState);
+            for (int i = 0; i < k; i++) {
+                outputs[i] = s[i] == -1 ? 0 : automata.get(i).O.getInt(s[i]);
+            }
+            if (output.apply(outputs) != 0) {
+                return true;
+            }
+            int[] inputs = dense ? null : inputsOfTuple(automata, s);
+            int count = dense ? alphabetSize : inputs.length;
+            for (int j = 0; j < count; j++) {
+                int x = dense ? j : inputs[j];
+                int[] next = new int[k];
+                boolean alive = false, dead = false;
+                for (int i = 0; i < k; i++) {
+                    next[i] = s[i] == -1 ? -1 : automata.get(i).successorOf(s[i], x);
+                    if (next[i] != -1 && !useful[i][next[i]]) next[i] = -1;
+                    alive |= next[i] != -1;
+                    dead |= next[i] == -1;
+                }
+                if (!alive || (intersection && dead)) continue;
+                states.getOrAdd(next);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param M
+     * @return this automaton and M.
+     * @throws Exception
+
+     */
+    public Automaton and(
+        Automaton M,
+        boolean print,
+        String prefix,
+        StringBuilder log) throws Exception {
+        if((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) &&
+            (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) {
+            return new Automaton(true);
+        }
+
+        if((TRUE_FALSE_AUTOMATON && !TRUE_AUTOMATON) ||
+            (M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON)) {
+            return new Automaton(false);
+        }
+
+        if(TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) {
+            return M;
+        }
+
+        if(M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON) {
+            return this;
+        }
+
+        long timeBefore = System.currentTimeMillis();
+        if(print) {
+            String msg = prefix + "computing &:" + Q + " states - " + M.Q + " states";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+
+        Automaton N = crossProduct(M,"&",print,prefix,log);
+        N.minimize(null, print,prefix+" ",log);
+
+        long timeAfter = System.currentTimeMillis();
+        if(print){
             String msg = prefix + "computed &:" + N.Q + " states - "+(timeAfter-timeBefore)+"ms";
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
@@ -1723,6 +2176,293 @@ public class Automaton {
         return N;
     }
 
+    /**
+     * Computes M = this.and(M) followed by M.quantify(listOfLabelsToQuantify), without building the cross product
+     * over all of its inputs: the cross product is explored directly over the inputs that are not quantified
+     * (see crossProduct), and the resulting non deterministic automaton is determinized and minimized once.
+     * <br>
+     * In the cases where and and quantify do not build a cross product and project it (true/false automata, unknown
+     * labels, or every label quantified), this is and followed by quantify, so the errors are those of and and
+     * quantify.
+     * @param M
+     * @param listOfLabelsToQuantify
+     * @return the automaton of "E listOfLabelsToQuantify (this & M)".
+     * @throws Exception
+     */
+    public Automaton andThenQuantify(
+        Automaton M,
+        Set<String> listOfLabelsToQuantify,
+        boolean print,
+        String prefix,
+        StringBuilder log) throws Exception {
+        if (!canProjectCrossProduct(M, listOfLabelsToQuantify)) {
+            Automaton N = and(M, print, prefix, log);
+            N.quantify(listOfLabelsToQuantify, print, prefix, log);
+            return N;
+        }
+
+        long timeBefore = System.currentTimeMillis();
+        if (print) {
+            String msg = prefix + "computing & and quantifying:" + Q + " states - " + M.Q + " states";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+        Automaton N = crossProduct(M, "&", listOfLabelsToQuantify, print, prefix + " ", log);
+        N.minimize(null, print, prefix + " ", log);
+        N.fixLeadingOrTrailingZeros(print, prefix + " ", log);
+        long timeAfter = System.currentTimeMillis();
+        if (print) {
+            String msg = prefix + "computed & and quantified:" + N.Q + " states - " + (timeAfter - timeBefore) + "ms";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+        return N;
+    }
+
+    public Automaton andThenQuantify(Automaton M, String labelToQuantify, boolean print, String prefix, StringBuilder log) throws Exception {
+        Set<String> listOfLabelsToQuantify = new HashSet<>();
+        listOfLabelsToQuantify.add(labelToQuantify);
+        return andThenQuantify(M, listOfLabelsToQuantify, print, prefix, log);
+    }
+
+    /**
+     * @return whether andThenQuantify can project the cross product of this and M as it is built: neither is a
+     * true/false automaton, and listOfLabelsToQuantify is made of some, but not all, of their labels.
+     */
+    private boolean canProjectCrossProduct(Automaton M, Set<String> listOfLabelsToQuantify) {
+        if (TRUE_FALSE_AUTOMATON || M.TRUE_FALSE_AUTOMATON || listOfLabelsToQuantify.isEmpty() ||
+            label == null || M.label == null) {
+            return false;
+        }
+        Set<String> labels = new HashSet<>(label);
+        labels.addAll(M.label);
+        return labels.containsAll(listOfLabelsToQuantify) && labels.size() > listOfLabelsToQuantify.size();
+    }
+
+    /**
+     * Fixes the input with label labelToFix to a constant, and removes it: afterwards this automaton reads the other
+     * inputs, and does what it did when the fixed input read the representation of the constant alongside them.
+     * This is "E x (M & x = n)", computed without the product with the automaton of n: the digits of n are walked
+     * through the transitions of this automaton.
+     * <br>
+     * The representation is word, padded with zeros: 0*word for msd, word0* for lsd. When the other inputs
+     * are shorter than word, they are padded with zeros as well. For msd, where the padding of the fixed input is not
+     * known in advance, a state is a tuple: its k-th element is the state we are in if we already read the first k
+     * digits of word (or -1), and its last element gives the output. As this automaton is deterministic, this is
+     * already deterministic, and there is no subset construction. For lsd, a state is a pair (k, q).
+     * This works for word automata too, whose outputs are kept.
+     * @param labelToFix
+     * @param ns - the number system of the constant, which gives word (see NumberSystem.getRepresentation) and msd.
+     * @param constant
+     * @return false, leaving this automaton unchanged, when this method does not apply: this automaton is not
+     * deterministic, the input is its only input, its alphabet is not the one of ns, the automaton of the constant
+     * is not of the form above, or, for msd, q0 does not go to itself on the input where every input reads 0.
+     * @throws Exception
+     */
+    public boolean specialize(
+        String labelToFix,
+        NumberSystem ns,
+        int constant,
+        boolean print,
+        String prefix,
+        StringBuilder log) throws Exception {
+        if (TRUE_FALSE_AUTOMATON || label == null || !label.contains(labelToFix) || A.size() < 2 || !isDeterministic()) {
+            return false;
+        }
+        int i = label.indexOf(labelToFix);
+        if (!UtilityMethods.areEqual(A.get(i), ns.getAlphabet())) {
+            return false;
+        }
+        List<Integer> word = ns.getRepresentation(constant);
+        if (word == null) {
+            return false;
+        }
+        boolean msd = ns.isMsd();
+        int n = word.size();
+        int zero = A.get(i).indexOf(0);
+        int[] digits = new int[n];
+        for (int k = 0; k < n; k++) {
+            digits[k] = A.get(i).indexOf(word.get(k));
+            if (digits[k] == -1) return false;
+        }
+        if (zero == -1) return false;
+        if (msd) {
+            /**
+             * E labelToFix (this & labelToFix = constant) ends with quantify, which also accepts w when some 0*w is
+             * accepted (see fixLeadingZerosProblem). This does not, so it only applies when that changes nothing:
+             * when q0 goes to itself on the input where every input reads 0.
+             */
+            int allZeros = 0;
+            int allStride = 1;
+            for (List<Integer> values : A) {
+                int z = values.indexOf(0);
+                if (z == -1) return false;
+                allZeros += allStride * z;
+                allStride *= values.size();
+            }
+            if (successorOf(q0, allZeros) != q0) return false;
+        }
+
+        long timeBefore = System.currentTimeMillis();
+        if (print) {
+            String msg = prefix + "specializing " + labelToFix + ":" + Q + " states";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+
+        int stride = 1;
+        for (int j = 0; j < i; j++) {
+            stride *= A.get(j).size();
+        }
+        int size = A.get(i).size();
+        boolean[] dropped = new boolean[A.size()];
+        dropped[i] = true;
+        InputProjection projection = new InputProjection(A, dropped);
+        /**
+         * zeros is the input where every other input reads 0, and the fixed input reads its first value. It is -1 if
+         * some other input has no 0, in which case they cannot be padded.
+         */
+        int zeros = 0;
+        int otherStride = 1;
+        for (int j = 0; j < A.size(); j++) {
+            int z = A.get(j).indexOf(0);
+            if (j != i) {
+                if (z == -1) {
+                    zeros = -1;
+                    break;
+                }
+                zeros += otherStride * z;
+            }
+            otherStride *= A.get(j).size();
+        }
+        int newAlphabetSize = alphabetSize / size;
+
+        SubsetTable states = new SubsetTable();
+        IntArrayList table = new IntArrayList();
+        IntList newO = new IntArrayList();
+        int[] start;
+        if (msd) {
+            start = new int[n + 1];
+            Arrays.fill(start, -1);
+            start[0] = q0;
+            for (int k = 1; k <= n && zeros != -1 && start[k - 1] != -1; k++) {
+                start[k] = successorOf(start[k - 1], zeros + stride * digits[k - 1]);
+            }
+        }
+        else {
+            start = new int[]{0, q0};
+        }
+        states.getOrAdd(start);
+        for (int current = 0; current < states.size(); current++) {
+            int[] state = states.get(current);
+            int row = table.size();
+            for (int y = 0; y < newAlphabetSize; y++) {
+                table.add(-1);
+            }
+            Int2ObjectMap<int[]> successors = new Int2ObjectOpenHashMap<>();
+            if (msd) {
+                newO.add(state[n] == -1 ? 0 : O.getInt(state[n]));
+                for (int k = 0; k < n + 1; k++) {
+                    if (state[k] == -1) continue;
+                    for (int x : inputsOf(state[k])) {
+                        int digit = (x / stride) % size;
+                        boolean leadingZero = k == 0 && digit == zero, nextDigit = k < n && digit == digits[k];
+                        if (!leadingZero && !nextDigit) continue;
+                        int[] next = successors.get(projection.apply(x));
+                        if (next == null) {
+                            next = new int[n + 1];
+                            Arrays.fill(next, -1);
+                            successors.put(projection.apply(x), next);
+                        }
+                        int p = successorOf(state[k], x);
+                        if (leadingZero) next[0] = p;
+                        if (nextDigit) next[k + 1] = p;
+                    }
+                }
+            }
+            else {
+                int k = state[0], q = state[1];
+                // the output if the other inputs end here, and are padded with zeros until the end of word
+                int p = q;
+                for (int m = k; m < n && p != -1; m++) {
+                    p = zeros == -1 ? -1 : successorOf(p, zeros + stride * digits[m]);
+                }
+                newO.add(p == -1 ? 0 : O.getInt(p));
+                int expected = k < n ? digits[k] : zero;
+                for (int x : inputsOf(q)) {
+                    if ((x / stride) % size == expected) {
+                        successors.put(projection.apply(x), new int[]{Math.min(k + 1, n), successorOf(q, x)});
+                    }
+                }
+            }
+            for (Int2ObjectMap.Entry<int[]> entry : successors.int2ObjectEntrySet()) {
+                table.set(row + entry.getIntKey(), states.getOrAdd(entry.getValue()));
+            }
+        }
+
+        List<Integer> droppedInputs = new ArrayList<>();
+        droppedInputs.add(i);
+        UtilityMethods.removeIndices(A, droppedInputs);
+        UtilityMethods.removeIndices(NS, droppedInputs);
+        UtilityMethods.removeIndices(label, droppedInputs);
+        encoder = null;
+        alphabetSize = newAlphabetSize;
+        Q = states.size();
+        q0 = 0;
+        O = newO;
+        d = null;
+        compressedTransitions = null;
+        transitionTable = table.toIntArray();
+        if (ValmariMinimizer.canMinimizeWithOutput(this)) {
+            ValmariMinimizer.forCurrentThread().minimizeWithOutput(this);
+        }
+        else {
+            copy(minimizeWithOutputByUncombining(false, prefix, log));
+        }
+        canonized = false;
+
+        long timeAfter = System.currentTimeMillis();
+        if (print) {
+            String msg = prefix + "specialized " + labelToFix + ":" + Q + " states - " + (timeAfter - timeBefore) + "ms";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+        return true;
+    }
+
+    /**
+     * @return the inputs along a shortest word leading from q0 to a state with non-zero output, or null if there is none.
+     */
+    IntList shortestAcceptedWord() {
+        if (TRUE_FALSE_AUTOMATON) return null;
+        int[] previousState = new int[Q], previousInput = new int[Q];
+        Arrays.fill(previousState, -2);
+        previousState[q0] = -1;
+        IntArrayList queue = new IntArrayList();
+        queue.add(q0);
+        for (int head = 0; head < queue.size(); head++) {
+            int q = queue.getInt(head);
+            if (O.getInt(q) != 0) {
+                IntArrayList word = new IntArrayList();
+                for (int p = q; previousState[p] != -1; p = previousState[p]) {
+                    word.add(previousInput[p]);
+                }
+                Collections.reverse(word);
+                return word;
+            }
+            for (int x : inputsOf(q)) {
+                for (int p : successorsOf(q, x)) {
+                    if (previousState[p] == -2) {
+                        previousState[p] = q;
+                        previousInput[p] = x;
+                        queue.add(p);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * @param M
      * @return  this automaton or M
@@ -1842,6 +2582,148 @@ public class Automaton {
         return N;
     }
 
+    /**
+     * This should be a word automaton. Computes the conjunction, over the outputs o of this automaton, of
+     * (this = @o => constraints.get(o)), which is how a word is compared with, or used in arithmetic with, a variable.
+     * <br>
+     * Rather than one compare, imply and and per output, we take one product of the constraints, whose output
+     * records which of them accept (as a bit mask), and one cross product of this automaton with it, where a state
+     * (p, q) is accepting when the constraint of the output of p accepts in q. Both are totalized first, and a missing
+     * transition of this automaton leads to a state with no output, where every implication holds, as in imply.
+     * A constraint that lacks some inputs of the others is given them first, free.
+     * <br>
+     * When this does not apply (this automaton is not deterministic, a constraint is a true/false automaton, or there
+     * are more than 31 outputs), this is compare, imply and and for every output. When print is true, this is
+     * compare, imply and and for the output of every state, as it was before outputs were combined, so that the steps
+     * logged stay the same.
+     * @param constraints - the constraint for every distinct output of this automaton
+     * @return the conjunction of the implications
+     * @throws Exception
+     */
+    public Automaton implyPerOutput(
+        Map<Integer, Automaton> constraints,
+        boolean print,
+        String prefix,
+        StringBuilder log) throws Exception {
+        if (print) {
+            Automaton M = new Automaton(true);
+            for (int o : O) {
+                Automaton N = clone();
+                N.compare(o, "=", print, prefix, log);
+                N = N.imply(constraints.get(o).clone(), print, prefix, log);
+                M = M.and(N, print, prefix, log);
+            }
+            return M;
+        }
+        List<Integer> outputs = new ArrayList<>(constraints.keySet());
+        boolean singlePass = !TRUE_FALSE_AUTOMATON && label != null && label.size() == A.size() &&
+            outputs.size() <= 31 && isDeterministic();
+        for (Automaton C : constraints.values()) {
+            singlePass &= !C.TRUE_FALSE_AUTOMATON && C.label != null && C.label.size() == C.A.size();
+        }
+        List<Automaton> automata = new ArrayList<>();
+        if (singlePass) {
+            // give every constraint the same inputs, in the same order
+            for (int o : outputs) {
+                Automaton C = constraints.get(o);
+                for (Automaton other : constraints.values()) {
+                    C = C.withInputsOf(other);
+                }
+                C = C.clone();
+                C.labelSorted = false;
+                C.sortLabel();
+                automata.add(C);
+            }
+            singlePass = canTakeProductOf(automata);
+        }
+        if (!singlePass) {
+            Automaton M = new Automaton(true);
+            for (int o : outputs) {
+                Automaton N = clone();
+                N.compare(o, "=", print, prefix, log);
+                N = N.imply(constraints.get(o), print, prefix, log);
+                M = M.and(N, print, prefix, log);
+            }
+            return M;
+        }
+
+        long timeBefore = System.currentTimeMillis();
+        if (print) {
+            String msg = prefix + "computing implications for " + outputs.size() + " outputs:" + Q + " states";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+
+        Automaton K = productOf(automata, (o) -> {
+            int mask = 0;
+            for (int j = 0; j < o.length; j++) {
+                if (o[j] != 0) mask |= 1 << j;
+            }
+            return mask;
+        }, false, print, prefix + " ", log);
+        K.totalize(print, prefix + " ", log);
+
+        Automaton W = clone();
+        int states = W.Q;
+        W.totalize(print, prefix + " ", log);
+        Int2IntOpenHashMap indexOfOutput = new Int2IntOpenHashMap();
+        indexOfOutput.defaultReturnValue(-1);
+        for (int j = 0; j < outputs.size(); j++) {
+            indexOfOutput.put((int) outputs.get(j), j);
+        }
+        if (W.Q > states) {
+            // the state added by totalize has no output: give it one that is not an output of this automaton
+            int noOutput = 0;
+            while (indexOfOutput.containsKey(noOutput)) {
+                noOutput++;
+            }
+            W.O.set(states, noOutput);
+        }
+        Automaton N = W.crossProduct(K, null, (a, b) -> {
+            int j = indexOfOutput.get(a);
+            return (j == -1 || ((b >> j) & 1) != 0) ? 1 : 0;
+        }, null, print, prefix + " ", log);
+        N.minimize(null, print, prefix + " ", log);
+        N.applyAllRepresentations();
+
+        long timeAfter = System.currentTimeMillis();
+        if (print) {
+            String msg = prefix + "computed implications for " + outputs.size() + " outputs:" + N.Q + " states - " + (timeAfter - timeBefore) + "ms";
+            log.append(msg + UtilityMethods.newLine());
+            System.out.println(msg);
+        }
+        return N;
+    }
+
+    /**
+     * @return this automaton, with the inputs of M it does not have added as free inputs: they can read anything.
+     * This automaton itself when there are none.
+     */
+    private Automaton withInputsOf(Automaton M) throws Exception {
+        Automaton U = new Automaton();
+        for (int i = 0; i < M.A.size(); i++) {
+            if (!label.contains(M.label.get(i))) {
+                U.A.add(M.A.get(i));
+                U.NS.add(M.NS.get(i));
+                U.label.add(M.label.get(i));
+            }
+        }
+        if (U.A.isEmpty()) {
+            return this;
+        }
+        // one accepting state, with a loop on every input
+        U.alphabetSize = 1;
+        for (List<Integer> x : U.A) {
+            U.alphabetSize *= x.size();
+        }
+        U.Q = 1;
+        U.q0 = 0;
+        U.O.add(1);
+        U.d = null;
+        U.transitionTable = new int[U.alphabetSize];
+        return crossProduct(U, "&", false, null, null);
+    }
+
     /**
      * @param M
      * @return  this automaton iff M
@@ -1919,6 +2801,12 @@ public class Automaton {
         }
     }
 
+    /**
+     * @return whether this automaton and M accept the same words, where a word is accepted when it can lead to a
+     * state with non-zero output. Inputs are compared by their encoding, and labels are ignored.
+     * See distinguish.
+     * @throws Exception
+     */
     public boolean equals(Automaton M)throws Exception{
         if(M == null)return false;
         if(TRUE_FALSE_AUTOMATON != M.TRUE_FALSE_AUTOMATON)return false;
@@ -1926,9 +2814,249 @@ public class Automaton {
             if(TRUE_AUTOMATON != M.TRUE_AUTOMATON)return false;
             return true;
         }
-        dk.brics.automaton.Automaton Y = M.to_dk_bricks_automaton();
-        dk.brics.automaton.Automaton X = to_dk_bricks_automaton();
-        return X.equals(Y);
+        return distinguish(M) == null;
+    }
+
+    /**
+     * @return null when equals(M) is true, and otherwise a word accepted by exactly one of this automaton
+     * and M, as a list of decoded inputs. When one of them is a true/false automaton, the word is empty.
+     * @throws Exception
+     */
+    public List<List<Integer>> distinguishingWord(Automaton M)throws Exception{
+        if(TRUE_FALSE_AUTOMATON || M.TRUE_FALSE_AUTOMATON){
+            return equals(M) ? null : new ArrayList<>();
+        }
+        IntList word = distinguish(M);
+        if(word == null)return null;
+        List<List<Integer>> decoded = new ArrayList<>();
+        for(int x:word){
+            decoded.add(decode(x));
+        }
+        return decoded;
+    }
+
+    /**
+     * The equivalence check of Hopcroft and Karp, on the fly: we explore pairs (S, T), where S is a set of states of
+     * this automaton and T a set of states of M reached by the same word, in breadth first order, starting with
+     * ({q0}, {M.q0}). A union-find structure over the sets we found keeps the pairs known to be equivalent if all
+     * the pairs in the queue are, and a pair (S', T') is only queued when S' and T' are not already in the same class.
+     * So at most as many pairs are explored as there are sets of either automaton, and no product is built. The search
+     * stops at the first pair where one set is accepting and the other is not.
+     * <br>
+     * Sets are stored in a SubsetTable for each automaton (for deterministic automata, they are singletons, and
+     * nothing is determinized). The empty set stands for the dead state.
+     * @return null if the two automata are equivalent, and otherwise the inputs along a word that
+     * distinguishes them.
+     */
+    private IntList distinguish(Automaton M) {
+        SubsetTable mine = new SubsetTable(), theirs = new SubsetTable();
+        // the node in the union-find structure of every set of this automaton and of M
+        IntArrayList nodesOfMine = new IntArrayList(), nodesOfTheirs = new IntArrayList();
+        IntArrayList parent = new IntArrayList();
+        // the pairs queued so far: the two sets, and the pair and input we came from
+        IntArrayList pairMine = new IntArrayList(), pairTheirs = new IntArrayList();
+        IntArrayList previousPair = new IntArrayList(), previousInput = new IntArrayList();
+
+        int a = mine.getOrAdd(new int[]{q0}), b = theirs.getOrAdd(new int[]{M.q0});
+        union(parent, node(nodesOfMine, parent, a), node(nodesOfTheirs, parent, b));
+        pairMine.add(a); pairTheirs.add(b);
+        previousPair.add(-1); previousInput.add(-1);
+        for(int pair = 0; pair < pairMine.size(); pair++){
+            int[] S = mine.get(pairMine.getInt(pair)), T = theirs.get(pairTheirs.getInt(pair));
+            if(accepts(S) != M.accepts(T)){
+                IntArrayList word = new IntArrayList();
+                for(int p = pair; previousPair.getInt(p) != -1; p = previousPair.getInt(p)){
+                    word.add(previousInput.getInt(p));
+                }
+                Collections.reverse(word);
+                return word;
+            }
+            Int2ObjectMap<IntArrayList> successorsOfS = successorsOfSet(S), successorsOfT = M.successorsOfSet(T);
+            IntSortedSet inputs = new IntRBTreeSet(successorsOfS.keySet());
+            inputs.addAll(successorsOfT.keySet());
+            for(int x:inputs){
+                IntArrayList nextS = successorsOfS.get(x), nextT = successorsOfT.get(x);
+                int nextA = mine.getOrAdd(nextS == null ? new int[0] : SubsetTable.canonical(nextS));
+                int nextB = theirs.getOrAdd(nextT == null ? new int[0] : SubsetTable.canonical(nextT));
+                if(union(parent, node(nodesOfMine, parent, nextA), node(nodesOfTheirs, parent, nextB))){
+                    pairMine.add(nextA); pairTheirs.add(nextB);
+                    previousPair.add(pair); previousInput.add(x);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the automaton of all words that are valid representations in the number systems NS of their inputs
+     * (see applyAllRepresentations), with inputs A labeled label, in this order.
+     */
+    private static Automaton validRepresentations(
+        List<List<Integer>> A, List<NumberSystem> NS, List<String> label) throws Exception {
+        Automaton U = new Automaton();
+        U.alphabetSize = 1;
+        for(int i = 0; i < A.size(); i++){
+            U.A.add(new ArrayList<>(A.get(i)));
+            U.NS.add(NS.get(i));
+            U.label.add(label.get(i));
+            U.alphabetSize *= A.get(i).size();
+        }
+        // one accepting state, with a loop on every input
+        U.Q = 1;
+        U.q0 = 0;
+        U.O.add(1);
+        U.d = null;
+        U.transitionTable = new int[U.alphabetSize];
+        U.applyAllRepresentations();
+        return U;
+    }
+
+    /**
+     * The antichain inclusion check of De Wulf, Doyen, Henzinger and Raskin: we explore pairs (p, S), where p is a
+     * state of this automaton and S the set of states of M reached by the same word, starting with (q0, {M.q0}),
+     * and stop at the first pair where p has a non-zero output and no state in S has. A pair (p, S) is dropped when
+     * some pair (p, T) with T a subset of S was already found, since any word that is not accepted from S is not
+     * accepted from T either. So for every state p we only keep the minimal sets, and M is never determinized.
+     * <br>
+     * Inputs are compared by their encoding, so both automata must have the same inputs, in the same order.
+     * @return whether every word accepted by this automaton is accepted by M.
+     */
+    private boolean isIncludedIn(Automaton M) {
+        // the pairs found so far, and the ones that are no longer minimal
+        IntArrayList pairState = new IntArrayList();
+        List<int[]> pairSet = new ArrayList<>();
+        BitSet dominated = new BitSet();
+        // for every state of this automaton, its pairs that are still minimal
+        Int2ObjectMap<IntArrayList> antichain = new Int2ObjectOpenHashMap<>();
+
+        if(O.getInt(q0) != 0 && !M.accepts(new int[]{M.q0}))return false;
+        addToAntichain(antichain, pairState, pairSet, dominated, q0, new int[]{M.q0});
+        for(int pair = 0; pair < pairState.size(); pair++){
+            if(dominated.get(pair))continue;
+            int p = pairState.getInt(pair);
+            Int2ObjectMap<IntArrayList> successorsOfS = M.successorsOfSet(pairSet.get(pair));
+            IntList inputs = inputsOf(p);
+            for(int i = 0; i < inputs.size(); i++){
+                int x = inputs.getInt(i);
+                IntArrayList next = successorsOfS.get(x);
+                int[] nextS = next == null ? new int[0] : SubsetTable.canonical(next);
+                boolean nextAccepts = M.accepts(nextS);
+                IntList dest = successorsOf(p, x);
+                for(int j = 0; j < dest.size(); j++){
+                    int nextP = dest.getInt(j);
+                    if(O.getInt(nextP) != 0 && !nextAccepts)return false;
+                    addToAntichain(antichain, pairState, pairSet, dominated, nextP, nextS);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the pair (p, S) to the antichain of p, unless a pair (p, T) with T a subset of S is in it already,
+     * and marks the pairs (p, T) with S a subset of T as dominated.
+     */
+    private static void addToAntichain(
+        Int2ObjectMap<IntArrayList> antichain, IntArrayList pairState, List<int[]> pairSet, BitSet dominated,
+        int p, int[] S) {
+        IntArrayList pairsOfP = antichain.get(p);
+        if(pairsOfP == null){
+            pairsOfP = new IntArrayList();
+            antichain.put(p, pairsOfP);
+        }
+        for(int pair:pairsOfP){
+            if(isSubset(pairSet.get(pair), S))return;
+        }
+        IntArrayList stillMinimal = new IntArrayList();
+        for(int pair:pairsOfP){
+            if(isSubset(S, pairSet.get(pair))){
+                dominated.set(pair);
+            }
+            else{
+                stillMinimal.add(pair);
+            }
+        }
+        stillMinimal.add(pairState.size());
+        antichain.put(p, stillMinimal);
+        pairState.add(p);
+        pairSet.add(S);
+    }
+
+    /**
+     * @return whether S is a subset of T, both sorted with no repeated elements.
+     */
+    private static boolean isSubset(int[] S, int[] T) {
+        if(S.length > T.length)return false;
+        int j = 0;
+        for(int s:S){
+            while(j < T.length && T[j] < s)j++;
+            if(j == T.length || T[j] != s)return false;
+            j++;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether some state in S has a non-zero output.
+     */
+    private boolean accepts(int[] S) {
+        for(int q:S){
+            if(O.getInt(q) != 0)return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return for every input, the states that the states in S go to on it (possibly repeated).
+     */
+    private Int2ObjectMap<IntArrayList> successorsOfSet(int[] S) {
+        Int2ObjectMap<IntArrayList> successors = new Int2ObjectOpenHashMap<>();
+        for(int q:S){
+            for(int x:inputsOf(q)){
+                IntList dest = successorsOf(q, x);
+                if(dest == null || dest.isEmpty())continue;
+                IntArrayList next = successors.get(x);
+                if(next == null){
+                    next = new IntArrayList();
+                    successors.put(x, next);
+                }
+                next.addAll(dest);
+            }
+        }
+        return successors;
+    }
+
+    /**
+     * @return the node of set i in the union-find structure parent, adding it if this is the first time we see set i.
+     * Sets are numbered in the order they are found, so set i is either known or the next one.
+     */
+    private static int node(IntArrayList nodes, IntArrayList parent, int i) {
+        if(i == nodes.size()){
+            nodes.add(parent.size());
+            parent.add(parent.size());
+        }
+        return nodes.getInt(i);
+    }
+
+    /**
+     * Merges the classes of u and v in the union-find structure parent.
+     * @return false if they were already the same class.
+     */
+    private static boolean union(IntArrayList parent, int u, int v) {
+        u = find(parent, u);
+        v = find(parent, v);
+        if(u == v)return false;
+        parent.set(u, v);
+        return true;
+    }
+
+    private static int find(IntArrayList parent, int u) {
+        while(parent.getInt(u) != u){
+            // path halving
+            parent.set(u, parent.getInt(parent.getInt(u)));
+            u = parent.getInt(u);
+        }
+        return u;
     }
 
     /**
@@ -1943,9 +3071,13 @@ public class Automaton {
      */
     public Automaton unionOrIntersect(List<String> automataNames, String op, boolean print, String prefix, StringBuilder log) throws Exception {
         Automaton first = this.clone();
+        if (!op.equals("union") && !op.equals("intersect")) {
+            throw new Exception("Internal union/intersect error");
+        }
 
+        List<Automaton> automata = new ArrayList<>();
+        automata.add(first);
         for (int i = 0; i < automataNames.size(); i++) {
-            long timeBefore = System.currentTimeMillis();
             Automaton N = new Automaton(UtilityMethods.get_address_for_automata_library()+automataNames.get(i)+".txt");
 
             // ensure that N has the same number system as first.
@@ -1970,6 +3102,29 @@ public class Automaton {
             if (differingNS) {
                 throw new Exception("Automata to be unioned must have the same number system(s).");
             }
+            automata.add(N);
+        }
+
+        if (automata.size() > 1 && canTakeProductOf(automata)) {
+            // one product of all the automata, minimized once
+            long timeBefore = System.currentTimeMillis();
+            TupleOutputKernel output = op.equals("union") ? unionOutput() : intersectionOutput();
+            first = productOf(automata, output, op.equals("intersect"), print, prefix, log);
+            first.randomLabel();
+            first.minimize(null, print, prefix+" ", log);
+
+            long timeAfter = System.currentTimeMillis();
+            if(print){
+                String msg = prefix + "computed =>:" + first.Q + " states - "+(timeAfter-timeBefore)+"ms";
+                log.append(msg + UtilityMethods.newLine());
+                System.out.println(msg);
+            }
+            return first;
+        }
+
+        for (int i = 1; i < automata.size(); i++) {
+            long timeBefore = System.currentTimeMillis();
+            Automaton N = automata.get(i);
 
             // crossProduct requires labelling so we make an arbitrary labelling and use it for both: this is valid since
             // input alphabets and arities are assumed to be identical for the combine method
@@ -1979,11 +3134,8 @@ public class Automaton {
             if (op.equals("union")) {
                 first = first.or(N, print, prefix, log);
             }
-            else if (op.equals("intersect")) {
-                first = first.and(N, print, prefix, log);
-            }
             else {
-                throw new Exception("Internal union/intersect error");
+                first = first.and(N, print, prefix, log);
             }
 
 
@@ -2011,6 +3163,39 @@ public class Automaton {
 
         Automaton first = this.clone();
 
+        List<Automaton> automata = new ArrayList<>();
+        automata.add(first);
+        automata.addAll(subautomata);
+        if (automata.size() > 1 && canTakeProductOf(automata)) {
+            // one product of all the automata: the output is the value assigned to the last automaton accepting the input
+            subautomata.clear();
+            long timeBefore = System.currentTimeMillis();
+            int[] values = outputs.toIntArray();
+            first = productOf(automata, (o) -> {
+                int output = o[0] != 0 ? values[0] : 0;
+                for (int i = 1; i < o.length; i++) {
+                    if (o[i] == 1) output = values[i];
+                }
+                return output;
+            }, false, print, prefix+" ", log);
+            first.randomLabel();
+            if (ValmariMinimizer.canMinimizeWithOutput(first)) {
+                first = first.minimizeWithOutput(print, prefix+" ", log);
+            }
+            else {
+                // minimizeWithOutput would uncombine first, and combine the parts again
+                first.canonizeAndApplyAllRepresentationsWithOutput(print, prefix+" ", log);
+            }
+
+            long timeAfter = System.currentTimeMillis();
+            if(print){
+                String msg = prefix + "computed =>:" + first.Q + " states - "+(timeAfter-timeBefore)+"ms";
+                log.append(msg + UtilityMethods.newLine());
+                System.out.println(msg);
+            }
+            return first;
+        }
+
         // In an automaton without output, every non-zero output value represents an accepting state
         // we change this to correspond to the value assigned to the first automaton by our command
         for (int q = 0; q < first.Q; q++) {
@@ -2087,13 +3272,48 @@ public class Automaton {
     }
 
 
+    /**
+     * @return A minimized DFA with output recognizing the same language as the current DFA (possibly also with output).
+     * A deterministic automaton is minimized directly as a Moore machine: the states are first partitioned by their
+     * outputs, and the partition is refined in one pass (see ValmariMinimizer.minimizeWithOutput).
+     * Otherwise, or when the states times the inputs are too many for that, we fall back to
+     * minimizeWithOutputByUncombining.
+     * @throws Exception
+     */
+    public Automaton minimizeWithOutput(boolean print, String prefix, StringBuilder log) throws Exception {
+        if(TRUE_FALSE_AUTOMATON || !isDeterministic() || !ValmariMinimizer.canMinimizeWithOutput(this)){
+            return minimizeWithOutputByUncombining(print, prefix, log);
+        }
+        long timeBefore = System.currentTimeMillis();
+        if(print) {
+            String msg = prefix + "Minimizing: " + Q + " states.";
+            System.out.println("----- " + msg);
+            log.append(msg + UtilityMethods.newLine());
+        }
+
+        Automaton N = clone();
+        if(N.compressedTransitions != null){
+            N.ensureTransitionMap();
+        }
+        ValmariMinimizer.forCurrentThread().minimizeWithOutput(N);
+        N.canonizeAndApplyAllRepresentationsWithOutput(print, prefix+" ", log);
+
+        long timeAfter = System.currentTimeMillis();
+        if(print) {
+            String msg = prefix + "Minimized:" + N.Q + " states - " + (timeAfter-timeBefore) + "ms.";
+            System.out.println("----- " + msg);
+            log.append(msg + UtilityMethods.newLine());
+        }
+        return N;
+    }
+
     /**
      * @return A minimized DFA with output recognizing the same language as the current DFA (possibly also with output).
      * We minimize a DFA with output by first uncombining into automata without output, minimizing the uncombined automata, and
      * then recombining. It follows that if the uncombined automata are minimal, then the combined automata is also minimal
      * @throws Exception
      */
-    public Automaton minimizeWithOutput(boolean print, String prefix, StringBuilder log) throws Exception {
+    private Automaton minimizeWithOutputByUncombining(boolean print, String prefix, StringBuilder log) throws Exception {
         IntList outputs = new IntArrayList(O);
         UtilityMethods.removeDuplicates(outputs);
         List<Automaton> subautomata = uncombine(outputs,print,prefix,log);
@@ -2107,6 +3327,20 @@ public class Automaton {
         return N;
     }
 
+    /**
+     * @return true if every state has at most one transition on every input.
+     */
+    private boolean isDeterministic() {
+        if(transitionTable != null) return true;
+        if(compressedTransitions != null) return compressedTransitions.isDeterministic();
+        for(int q = 0; q < Q; q++){
+            for(IntList dest : d.get(q).values()){
+                if(dest.size() > 1) return false;
+            }
+        }
+        return true;
+    }
+
     public void minimizeSelfWithOutput(boolean print, String prefix, StringBuilder log) throws Exception {
         Automaton N = minimizeWithOutput(print, prefix, log);
         copy(N);
@@ -2120,7 +3354,7 @@ public class Automaton {
             if (NS.get(i) != null && NS.get(i).should_we_use_allRepresentations()) {
                 switchNS = true;
                 int max = Collections.max(A.get(i));
-                numberSystems.add(new NumberSystem((NS.get(i).isMsd() ? "msd_" : "lsd_") + (max+1)));
+                numberSystems.add(NumberSystem.forName((NS.get(i).isMsd() ? "msd_" : "lsd_") + (max+1)));
             }
             else {
                 numberSystems.add(NS.get(i));
@@ -2153,27 +3387,35 @@ public class Automaton {
          // We will then canonize the resulting automaton after.
          int newState = N.Q;
          N.O.add(1); // The newly added state is a final state.
-         N.d.add(new Int2ObjectRBTreeMap<>());
-         for (int q = 0; q < N.Q; q++) {
-             if (N.O.getInt(q) == 0) { // if it is NOT a final state
+         CompressedTransitions.Builder newD = new CompressedTransitions.Builder();
+         IntList inputsOfQ0 = inputsOf(q0);
+         for (int q = 0; q < Q; q++) {
+             for (int x : inputsOf(q)) {
+                 for (int p : successorsOf(q, x)) {
+                     newD.add(q, x, p);
+                 }
+             }
+             if (O.getInt(q) == 0) { // if it is NOT a final state
                  continue;
              }
              // otherwise, it is a final state, and we add our transitions.
-             for (int x : d.get(q0).keySet()) {
-                 if (N.d.get(q).containsKey(x)) {
-                     N.d.get(q).get(x).addAll(N.d.get(q).get(x).size(), d.get(q0).get(x));
-                 }
-                 else {
-                     N.d.get(q).put(x, new IntArrayList(d.get(q0).get(x)));
+             for (int x : inputsOfQ0) {
+                 for (int p : successorsOf(q0, x)) {
+                     newD.add(q, x, p);
                  }
              }
          }
-         for (int x : d.get(q0).keySet()) {
-             N.d.get(newState).put(x, new IntArrayList(d.get(q0).get(x)));
+         for (int x : inputsOfQ0) {
+             for (int p : successorsOf(q0, x)) {
+                 newD.add(newState, x, p);
+             }
          }
 
          N.Q++;
          N.q0 = newState;
+         N.d = null;
+         N.transitionTable = null;
+         N.compressedTransitions = newD.build(N.Q);
 
          N.normalizeNumberSystems(print, prefix, log);
 
@@ -2250,39 +3492,43 @@ public class Automaton {
         Automaton N = clone();
 
         int otherQ0 = Q;
+        CompressedTransitions.Builder newD = new CompressedTransitions.Builder();
 
         // to access the other's states, just do q. To access the other's states in N, do otherQ0 + q.
         for (int q = 0; q < other.Q; q++) {
             N.O.add(other.O.getInt(q)); // add the output
-            N.d.add(new Int2ObjectRBTreeMap<>());
-            for (int x : other.d.get(q).keySet()) {
-                IntArrayList newTransitionMap = new IntArrayList();
-                for (int i = 0; i < other.d.get(q).get(x).size(); i++) {
-                    newTransitionMap.add(other.d.get(q).get(x).getInt(i) + otherQ0);
+            for (int x : other.inputsOf(q)) {
+                for (int p : other.successorsOf(q, x)) {
+                    newD.add(otherQ0 + q, x, otherQ0 + p);
                 }
-                N.d.get(otherQ0 + q).put(x, newTransitionMap);
             }
         }
 
         // now iterate through all of self's states. If they are final, add a transition to wherever the other's
         // initial state goes.
+        IntList inputsOfOtherQ0 = other.inputsOf(other.q0);
         for (int q = 0; q < Q; q++) {
-            if (N.O.getInt(q) == 0) { // if it is NOT a final state
+            for (int x : inputsOf(q)) {
+                for (int p : successorsOf(q, x)) {
+                    newD.add(q, x, p);
+                }
+            }
+            if (O.getInt(q) == 0) { // if it is NOT a final state
                 continue;
             }
 
             // otherwise, it is a final state, and we add our transitions.
-            for (int x : N.d.get(otherQ0).keySet()) {
-                if (N.d.get(q).containsKey(x)) {
-                    N.d.get(q).get(x).addAll(N.d.get(q).get(x).size(), N.d.get(otherQ0).get(x));
-                }
-                else {
-                    N.d.get(q).put(x, new IntArrayList(N.d.get(otherQ0).get(x)));
+            for (int x : inputsOfOtherQ0) {
+                for (int p : other.successorsOf(other.q0, x)) {
+                    newD.add(q, x, otherQ0 + p);
                 }
             }
         }
 
         N.Q = Q + other.Q;
+        N.d = null;
+        N.transitionTable = null;
+        N.compressedTransitions = newD.build(N.Q);
 
         N.normalizeNumberSystems(print, prefix, log);
 
@@ -2310,6 +3556,8 @@ public class Automaton {
      * @throws Exception
      */
     public Automaton rightQuotient(Automaton other, boolean skipSubsetCheck, boolean print, String prefix, StringBuilder log) throws Exception {
+        ensureTransitionMap();
+        other.ensureTransitionMap();
 
         long timeBefore = System.currentTimeMillis();
         if (print) {
@@ -2452,6 +3700,7 @@ public class Automaton {
 
 
     public void setAlphabet(boolean isDFAO, List<NumberSystem> numberSystems, List<List<Integer>> alphabet, boolean print, String prefix, StringBuilder log) throws Exception {
+        ensureTransitionMap();
 
         if (alphabet.size() != A.size()) {
             throw new Exception("The number of alphabets must match the number of alphabets in the input automaton.");
@@ -2570,6 +3819,7 @@ public class Automaton {
 
     // helper function for our DFS to facilitate recursion
     private String infiniteHelper(int state, String result) {
+        ensureTransitionMap();
         if(visited.contains(state)) {
             if(state == started) {
                 return result;
@@ -2731,6 +3981,30 @@ public class Automaton {
     public Automaton join(Queue<Automaton> subautomata, boolean print, String prefix, StringBuilder log) throws Exception {
         Automaton first = this.clone();
 
+        List<Automaton> automata = new ArrayList<>();
+        automata.add(first);
+        automata.addAll(subautomata);
+        if (automata.size() > 1 && canTakeProductOf(automata)) {
+            // one product of all the automata, minimized once
+            subautomata.clear();
+            long timeBefore = System.currentTimeMillis();
+            first = productOf(automata, (o) -> {
+                for (int output : o) {
+                    if (output != 0) return output;
+                }
+                return 0;
+            }, false, print, prefix+" ", log);
+            first = first.minimizeWithOutput(print,prefix+" ",log);
+
+            long timeAfter = System.currentTimeMillis();
+            if(print){
+                String msg = prefix + "computed =>:" + first.Q + " states - "+(timeAfter-timeBefore)+"ms";
+                log.append(msg + UtilityMethods.newLine());
+                System.out.println(msg);
+            }
+            return first;
+        }
+
         while (subautomata.size() > 0) {
             Automaton next = subautomata.remove();
             long timeBefore = System.currentTimeMillis();
@@ -2758,6 +4032,7 @@ public class Automaton {
 
     // helper function for inf, finds an input string that leads from q0 to the specified state
     private String constructPrefix(Integer target) {
+        ensureTransitionMap();
         List<Integer> distance = new ArrayList<>(Collections.nCopies(Q, -1));
         List<Integer> prev = new ArrayList<>(Collections.nCopies(Q, -1));
         List<Integer> input = new ArrayList<>(Collections.nCopies(Q, -1));
@@ -2804,6 +4079,7 @@ public class Automaton {
 
     // helper function for inf, find an input string that leads from the specified state to an accepting state
     private String constructSuffix(Integer target) {
+        ensureTransitionMap();
         List<Integer> distance = new ArrayList<>(Collections.nCopies(Q, -1));
         List<Integer> prev = new ArrayList<>(Collections.nCopies(Q, -1));
         List<Integer> input = new ArrayList<>(Collections.nCopies(Q, -1));
@@ -2859,6 +4135,7 @@ public class Automaton {
     }
 
     private boolean findAcceptedHelper(Integer curLength, String path, Integer state) {
+        ensureTransitionMap();
         if (curLength == searchLength) {
             // if we reach an accepting state of desired length, we add the string we've formed to our subautomata list
             if (O.getInt(state) != 0) {
@@ -2901,6 +4178,8 @@ public class Automaton {
             if(NS.get(i) != null){
                 Automaton N = NS.get(i).getAllRepresentations();
                 if(N != null && NS.get(i).should_we_use_allRepresentations()) {
+                    // the number system is shared, so we label a copy
+                    N = N.clone();
                     N.bind(label.get(i));
                     K = K.and(N,false,null,null);
                 }
@@ -2923,6 +4202,8 @@ public class Automaton {
             if(NS.get(i) != null){
                 Automaton N = NS.get(i).getAllRepresentations();
                 if(N != null && NS.get(i).should_we_use_allRepresentations()) {
+                    // the number system is shared, so we label a copy
+                    N = N.clone();
                     N.bind(label.get(i));
 
                     K = crossProduct(N,"if_other",print,prefix,log);
@@ -2962,6 +4243,8 @@ public class Automaton {
         canonized = M.canonized;
         labelSorted = M.labelSorted;
         d = M.d;
+        transitionTable = M.transitionTable;
+        compressedTransitions = M.compressedTransitions;
     }
 
     /**
@@ -2975,19 +4258,40 @@ public class Automaton {
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
         }
+        // the dead state has to fit in transitionTable as well
+        if(compressedTransitions != null ||
+            (transitionTable != null && (long)(Q + 1) * alphabetSize > Integer.MAX_VALUE - 8)){
+            ensureTransitionMap();
+        }
         //we first check if the automaton is totalized
         boolean totalized = true;
-        for(int q = 0 ; q < Q;q++){
-            for(int x = 0; x < alphabetSize;x++){
-                if(!d.get(q).containsKey(x)){
-                    IntList nullState = new IntArrayList();
-                    nullState.add(Q);
-                    d.get(q).put(x, nullState);
+        if(transitionTable != null){
+            for(int i = 0; i < transitionTable.length; i++){
+                if(transitionTable[i] == -1){
+                    transitionTable[i] = Q;
                     totalized = false;
                 }
             }
+            if(!totalized){
+                O.add(0);
+                transitionTable = Arrays.copyOf(transitionTable, (Q + 1) * alphabetSize);
+                Arrays.fill(transitionTable, Q * alphabetSize, (Q + 1) * alphabetSize, Q);
+                Q++;
+            }
+        }
+        else {
+            for(int q = 0 ; q < Q;q++){
+                for(int x = 0; x < alphabetSize;x++){
+                    if(!d.get(q).containsKey(x)){
+                        IntList nullState = new IntArrayList();
+                        nullState.add(Q);
+                        d.get(q).put(x, nullState);
+                        totalized = false;
+                    }
+                }
+            }
         }
-        if(!totalized){
+        if(!totalized && transitionTable == null){
             O.add(0);
             Q++;
             d.add(new Int2ObjectRBTreeMap<>());
@@ -3013,6 +4317,7 @@ public class Automaton {
      * @throws Exception
      */
     public boolean addDistinguishedDeadState(boolean print, String prefix, StringBuilder log) throws Exception {
+        ensureTransitionMap();
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "Adding distinguished dead state: " + Q + " states";
@@ -3317,17 +4622,124 @@ public class Automaton {
         out.write(
             UtilityMethods.newLine() + q + " " +
             Integer.toString(O.getInt(q)) + UtilityMethods.newLine());
-        for(int n: d.get(q).keySet()){
+        for(int n: inputsOf(q)){
             List<Integer> l = decode(n);
             for(int j = 0 ; j < l.size();j++)
                 out.write(Integer.toString(l.get(j)) + " ");
             out.write("->");
-            for(int dest:d.get(q).get(n))
+            for(int dest:successorsOf(q, n))
                 out.write(" " + Integer.toString(dest));
             out.write(UtilityMethods.newLine());
         }
     }
 
+    /**
+     * Writes this automaton in the binary form read back by read(DataInput, NumberSystem): the alphabet, the names of
+     * the number systems, the labels, the outputs, and the transitions in whichever of d, transitionTable and
+     * compressedTransitions is being used, so that the automaton read back is the same state for state.
+     * Unlike write(String), this does not canonize the automaton.
+     * @param out
+     * @throws IOException
+     */
+    void writeBinary(DataOutput out) throws IOException {
+        out.writeBoolean(TRUE_FALSE_AUTOMATON);
+        if(TRUE_FALSE_AUTOMATON){
+            out.writeBoolean(TRUE_AUTOMATON);
+            return;
+        }
+        out.writeInt(A.size());
+        for(int i = 0; i < A.size(); i++){
+            out.writeInt(A.get(i).size());
+            for(int a : A.get(i)) out.writeInt(a);
+            out.writeUTF(NS.get(i) == null ? "" : NS.get(i).toString());
+        }
+        int labels = label == null ? 0 : label.size();
+        out.writeInt(labels);
+        for(int i = 0; i < labels; i++) out.writeUTF(label.get(i));
+        out.writeBoolean(canonized);
+        out.writeBoolean(labelSorted);
+        out.writeInt(alphabetSize);
+        out.writeInt(Q);
+        out.writeInt(q0);
+        for(int q = 0; q < Q; q++) out.writeInt(O.getInt(q));
+        if(transitionTable != null){
+            out.writeByte(1);
+            for(int p : transitionTable) out.writeInt(p);
+            return;
+        }
+        out.writeByte(compressedTransitions != null ? 2 : 0);
+        for(int q = 0; q < Q; q++){
+            IntList inputs = inputsOf(q);
+            out.writeInt(inputs.size());
+            for(int x : inputs){
+                IntList dest = successorsOf(q, x);
+                out.writeInt(x);
+                out.writeInt(dest.size());
+                for(int p : dest) out.writeInt(p);
+            }
+        }
+    }
+
+    /**
+     * Reads an automaton written by writeBinary.
+     * @param in
+     * @param ns - the number system that the automaton is being read for. Inputs written with its name are given ns,
+     *           and inputs of other number systems are looked up with NumberSystem.forName.
+     * @return
+     * @throws Exception
+     */
+    static Automaton readBinary(DataInput in, NumberSystem ns) throws Exception {
+        if(in.readBoolean()){
+            return new Automaton(in.readBoolean());
+        }
+        Automaton M = new Automaton();
+        int inputs = in.readInt();
+        for(int i = 0; i < inputs; i++){
+            int size = in.readInt();
+            List<Integer> l = new ArrayList<>(size);
+            for(int j = 0; j < size; j++) l.add(in.readInt());
+            M.A.add(l);
+            String name = in.readUTF();
+            M.NS.add(name.isEmpty() ? null : name.equals(ns.toString()) ? ns : NumberSystem.forName(name));
+        }
+        int labels = in.readInt();
+        for(int i = 0; i < labels; i++) M.label.add(in.readUTF());
+        M.canonized = in.readBoolean();
+        M.labelSorted = in.readBoolean();
+        M.alphabetSize = in.readInt();
+        M.Q = in.readInt();
+        M.q0 = in.readInt();
+        for(int q = 0; q < M.Q; q++) M.O.add(in.readInt());
+        int form = in.readByte();
+        if(form == 1){
+            M.d = null;
+            M.transitionTable = new int[M.Q * M.alphabetSize];
+            for(int k = 0; k < M.transitionTable.length; k++) M.transitionTable[k] = in.readInt();
+            return M;
+        }
+        CompressedTransitions.Builder builder = form == 2 ? new CompressedTransitions.Builder() : null;
+        for(int q = 0; q < M.Q; q++){
+            Int2ObjectRBTreeMap<IntList> currentStatesTransitions = new Int2ObjectRBTreeMap<>();
+            int numberOfInputs = in.readInt();
+            for(int k = 0; k < numberOfInputs; k++){
+                int x = in.readInt();
+                int size = in.readInt();
+                IntList dest = new IntArrayList(size);
+                for(int j = 0; j < size; j++) dest.add(in.readInt());
+                if(builder != null){
+                    for(int p : dest) builder.add(q, x, p);
+                }
+                else currentStatesTransitions.put(x, dest);
+            }
+            if(builder == null) M.d.add(currentStatesTransitions);
+        }
+        if(builder != null){
+            M.d = null;
+            M.compressedTransitions = builder.build(M.Q);
+        }
+        return M;
+    }
+
     /**
      * Writes down this automaton to a .gv file given by the address. It uses the predicate that
      * caused this automaton as the label of this drawing.
@@ -3337,6 +4749,7 @@ public class Automaton {
      * @param address
      */
     public void draw(String address,String predicate, boolean isDFAO)throws Exception{
+        ensureTransitionMap();
         GraphViz gv = new GraphViz();
         if(TRUE_FALSE_AUTOMATON){
             gv.addln(gv.start_graph());
@@ -3451,6 +4864,7 @@ public class Automaton {
     }
 
     private void write_matrix_for_a_variable_list_value_pair(List<String> variables, List<Integer> valueList, List<Integer> indices, StringBuilder s) {
+        ensureTransitionMap();
         s.append(UtilityMethods.newLine() + "M_"+String.join("_", variables)+"_");
         s.append(valueList.stream().map(String::valueOf).collect(Collectors.joining("_")));
         s.append(" := Matrix([");
@@ -3590,6 +5004,7 @@ public class Automaton {
      * @throws Exception
      */
     public dk.brics.automaton.Automaton to_dk_bricks_automaton()throws Exception{
+        ensureTransitionMap();
         /**
          * Since the dk.bricks.automaton uses char as its input alphabet for an automaton, then in order to transform
          * Automata.Automaton to dk.bricks.automaton.Automata we've got to make sure, the input alphabet is less than
@@ -3636,6 +5051,8 @@ public class Automaton {
         q0 = setOfStates.indexOf(M.getInitialState());
         O = new IntArrayList();
         d = new ArrayList<>();
+        transitionTable = null;
+        compressedTransitions = null;
         canonized = false;
         for(int q = 0 ; q < Q;q++){
             State state = setOfStates.get(q);
@@ -3667,6 +5084,17 @@ public class Automaton {
         sortLabel();
         if(TRUE_FALSE_AUTOMATON) return;
 
+        if(transitionTable != null){
+            canonizeTransitionTable();
+            canonized = true;
+            return;
+        }
+        if(compressedTransitions != null){
+            canonizeCompressedTransitions();
+            canonized = true;
+            return;
+        }
+
         Queue<Integer> state_queue = new LinkedList<>();
         state_queue.add(q0);
 
@@ -3733,6 +5161,87 @@ public class Automaton {
         canonized = true;
     }
 
+    /**
+     * The same as canonize(), but for automata stored in transitionTable. Here the breadth-first queue doubles as
+     * the inverse of the permutation.
+     */
+    private void canonizeTransitionTable(){
+        int[] map = new int[Q];
+        Arrays.fill(map, -1);
+        int[] state_queue = new int[Q];
+        state_queue[0] = q0;
+        map[q0] = 0;
+        int newQ = 1;
+        for(int i = 0; i < newQ; i++){
+            int q = state_queue[i];
+            for(int x = 0; x < alphabetSize; x++){
+                int p = transitionTable[q * alphabetSize + x];
+                if(p != -1 && map[p] == -1){
+                    map[p] = newQ;
+                    state_queue[newQ++] = p;
+                }
+            }
+        }
+
+        int[] new_table = new int[newQ * alphabetSize];
+        IntList newO = new IntArrayList(newQ);
+        for(int i = 0; i < newQ; i++){
+            int q = state_queue[i];
+            newO.add(O.getInt(q));
+            for(int x = 0; x < alphabetSize; x++){
+                int p = transitionTable[q * alphabetSize + x];
+                new_table[i * alphabetSize + x] = p == -1 ? -1 : map[p];
+            }
+        }
+
+        q0 = 0;
+        Q = newQ;
+        O = newO;
+        transitionTable = new_table;
+    }
+
+    /**
+     * The same as canonize(), but for automata stored in compressedTransitions.
+     */
+    private void canonizeCompressedTransitions(){
+        CompressedTransitions T = compressedTransitions;
+        int[] map = new int[Q];
+        Arrays.fill(map, -1);
+        int[] state_queue = new int[Q];
+        state_queue[0] = q0;
+        map[q0] = 0;
+        int newQ = 1;
+        for(int i = 0; i < newQ; i++){
+            int q = state_queue[i];
+            for(int k = T.stateOffsets[q]; k < T.stateOffsets[q + 1]; k++){
+                for(int j = T.letterOffsets[k]; j < T.letterOffsets[k + 1]; j++){
+                    int p = T.targets[j];
+                    if(map[p] == -1){
+                        map[p] = newQ;
+                        state_queue[newQ++] = p;
+                    }
+                }
+            }
+        }
+
+        CompressedTransitions.Builder new_d = new CompressedTransitions.Builder();
+        IntList newO = new IntArrayList(newQ);
+        for(int i = 0; i < newQ; i++){
+            int q = state_queue[i];
+            newO.add(O.getInt(q));
+            for(int k = T.stateOffsets[q]; k < T.stateOffsets[q + 1]; k++){
+                for(int j = T.letterOffsets[k]; j < T.letterOffsets[k + 1]; j++){
+                    new_d.add(i, T.letters[k], map[T.targets[j]]);
+                }
+            }
+        }
+
+        q0 = 0;
+        Q = newQ;
+        O = newO;
+        compressedTransitions = new_d.build(newQ);
+    }
+
     /**
      *  Sorts inputs based on their labels lexicographically.
      *  For example if the labels of the inputs are ["b","c","a"], then the first, second, and third
@@ -3797,6 +5306,18 @@ public class Automaton {
         encoder = permuted_encoder;
         NS = UtilityMethods.permute(NS,label_permutation);
 
+        if(compressedTransitions != null){
+            ensureTransitionMap();
+        }
+        if(transitionTable != null){
+            int[] permuted_table = new int[transitionTable.length];
+            for(int q = 0; q < Q;q++){
+                for(int x = 0; x < alphabetSize; x++)
+                    permuted_table[q * alphabetSize + encoded_input_permutation[x]] = transitionTable[q * alphabetSize + x];
+            }
+            transitionTable = permuted_table;
+            return;
+        }
         for(int q = 0; q < Q;q++){
             Int2ObjectRBTreeMap<IntList> permuted_d = new Int2ObjectRBTreeMap<>();
             for(int x:d.get(q).keySet())
@@ -3959,6 +5480,8 @@ public class Automaton {
         O = null;
         label = null;
         d = null;
+        transitionTable = null;
+        compressedTransitions = null;
         canonized = false;
         labelSorted = false;
     }
@@ -3967,9 +5490,19 @@ public class Automaton {
         if(TRUE_FALSE_AUTOMATON){
             return !TRUE_AUTOMATON;
         }
-        return to_dk_bricks_automaton().isEmpty();
+        return shortestAcceptedWord() == null;
     }
 
+    /**
+     * subsetConstruction expands this many states of its queue at a time.
+     */
+    private static final int SUBSET_CONSTRUCTION_BATCH = 1 << 12;
+
+    /**
+     * Smaller batches are expanded on the calling thread, since handing them to the fork-join pool costs more than it saves.
+     */
+    private static final int PARALLEL_SUBSET_CONSTRUCTION_THRESHOLD = 64;
+
     /**
      * Subset Construction (Determinizing).
      * @param initial_state
@@ -3987,59 +5520,71 @@ public class Automaton {
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
         }
+        if(newMemD == null && initial_state.size() == 1 && isDeterministic()){
+            List<Int2IntMap> new_d = reachableTransitions(initial_state.iterator().nextInt(), print, prefix, log, timeBefore);
+            long timeAfter = System.currentTimeMillis();
+            if(print){
+                String msg = prefix + "Determinized: " + Q + " states - "+(timeAfter-timeBefore)+"ms";
+                log.append(msg + UtilityMethods.newLine());
+                System.out.println(msg);
+            }
+            return new_d;
+        }
 
         int number_of_states = 0,current_state = 0;
-        Object2IntMap<IntSet> statesHash = new Object2IntOpenHashMap<>();
-        List<IntSet> statesList = new ArrayList<>();
-        statesList.add(initial_state);
-        statesHash.put(initial_state, 0);
+        SubsetTable states = new SubsetTable();
+        states.getOrAdd(SubsetTable.canonical(new IntArrayList(initial_state)));
         number_of_states++;
 
         List<Int2IntMap> new_d = new ArrayList<>();
 
         while(current_state < number_of_states){
-
-            if (print) {
-                int statesSoFar = current_state + 1;
-                long timeAfter = System.currentTimeMillis();
-                if (statesSoFar == 1e2 || statesSoFar == 1e3 || statesSoFar % 1e4 == 0) {
-                    String msg = prefix + "  Progress: Added " + statesSoFar + " states - "
-                            + (number_of_states-statesSoFar) + " states left in queue - "
-                            + number_of_states + " reachable states - " + (timeAfter- timeBefore)+"ms";
-                    log.append(msg + UtilityMethods.newLine());
-                    System.out.println(msg);
+            /**
+             * We expand the frontier states [current_state, batchEnd) of the queue together. The successors of a state
+             * only depend on the state itself, so we compute them in parallel on the fork-join pool. Then we number the
+             * new subsets one state and one input at a time, exactly as if we had expanded the states one by one.
+             * Only this second step writes to states, and the result does not depend on the number of threads.
+             */
+            int batchEnd = Math.min(number_of_states, current_state + SUBSET_CONSTRUCTION_BATCH);
+            IntStream batch = IntStream.range(current_state, batchEnd);
+            if (batchEnd - current_state >= PARALLEL_SUBSET_CONSTRUCTION_THRESHOLD) {
+                batch = batch.parallel();
+            }
+            List<Int2ObjectMap<int[]>> batchSuccessors =
+                batch.mapToObj(q -> successorSubsets(newMemD, states.get(q))).collect(Collectors.toList());
+
+            for(Int2ObjectMap<int[]> successors : batchSuccessors){
+                if (print) {
+                    int statesSoFar = current_state + 1;
+                    long timeAfter = System.currentTimeMillis();
+                    if (statesSoFar == 1e2 || statesSoFar == 1e3 || statesSoFar % 1e4 == 0) {
+                        String msg = prefix + "  Progress: Added " + statesSoFar + " states - "
+                                + (number_of_states-statesSoFar) + " states left in queue - "
+                                + number_of_states + " reachable states - " + (timeAfter- timeBefore)+"ms";
+                        log.append(msg + UtilityMethods.newLine());
+                        System.out.println(msg);
+                    }
                 }
-            }
 
-            IntSet state = statesList.get(current_state);
-            new_d.add(new Int2IntOpenHashMap());
-            Int2IntMap currentStateMap = new_d.get(current_state);
-            for(int in = 0;in!=alphabetSize;++in){
-                IntOpenHashSet stateSubset = determineStateSubset(newMemD, state, in);
-                if(!stateSubset.isEmpty()){
-                    int new_dValue;
-                    int key = statesHash.getOrDefault(stateSubset, -1);
-                    if (key != -1){
-                        new_dValue = key;
-                    }
-                    else{
-                        stateSubset.trim(); // reduce memory footprint of set before storing
-                        statesList.add(stateSubset);
-                        statesHash.put(stateSubset,number_of_states);
-                        new_dValue = number_of_states;
-                        number_of_states++;
-                    }
-                    currentStateMap.put(in, new_dValue);
+                new_d.add(new Int2IntOpenHashMap());
+                Int2IntMap currentStateMap = new_d.get(current_state);
+                int[] inputs = successors.keySet().toIntArray();
+                Arrays.sort(inputs);
+                for(int in : inputs){
+                    currentStateMap.put(in, states.getOrAdd(successors.get(in)));
                 }
+                number_of_states = states.size();
+                current_state++;
             }
-            current_state++;
         }
         d = null;
+        transitionTable = null;
+        compressedTransitions = null;
         // NOTE: d is now null! This is to save peak memory
         // It's recomputed in minimize_valmari via the memory-efficient newMemD
         Q = number_of_states;
         q0 = 0;
-        O = calculateNewStateOutput(O, statesList);
+        O = calculateNewStateOutput(O, states);
 
         long timeAfter = System.currentTimeMillis();
         if(print){
@@ -4050,17 +5595,98 @@ public class Automaton {
         return new_d;
     }
 
+    /**
+     * The subset construction of a deterministic automaton, from the state initial. Every subset is then a single state,
+     * so we number the reachable states in the order the subset construction would find them and keep their
+     * transitions, without building, hashing or comparing subsets. The result is the same as subsetConstruction's, and
+     * so is the progress logged.
+     */
+    private List<Int2IntMap> reachableTransitions(int initial, boolean print, String prefix, StringBuilder log, long timeBefore) {
+        int[] number = new int[Q];
+        Arrays.fill(number, -1);
+        IntArrayList states = new IntArrayList();
+        number[initial] = 0;
+        states.add(initial);
+        List<Int2IntMap> new_d = new ArrayList<>();
+        for(int current = 0; current < states.size(); current++){
+            if (print) {
+                int statesSoFar = current + 1;
+                long timeAfter = System.currentTimeMillis();
+                if (statesSoFar == 1e2 || statesSoFar == 1e3 || statesSoFar % 1e4 == 0) {
+                    String msg = prefix + "  Progress: Added " + statesSoFar + " states - "
+                            + (states.size()-statesSoFar) + " states left in queue - "
+                            + states.size() + " reachable states - " + (timeAfter- timeBefore)+"ms";
+                    log.append(msg + UtilityMethods.newLine());
+                    System.out.println(msg);
+                }
+            }
+            int q = states.getInt(current);
+            Int2IntMap currentStateMap = new Int2IntOpenHashMap();
+            new_d.add(currentStateMap);
+            IntList inputs = inputsOf(q);
+            for(int i = 0; i < inputs.size(); i++){
+                int x = inputs.getInt(i);
+                int p = successorOf(q, x);
+                if(p == -1)continue;
+                if(number[p] == -1){
+                    number[p] = states.size();
+                    states.add(p);
+                }
+                currentStateMap.put(x, number[p]);
+            }
+        }
+        IntList newO = new IntArrayList(states.size());
+        for(int q:states){
+            newO.add(O.getInt(q) != 0 ? 1 : 0);
+        }
+        d = null;
+        transitionTable = null;
+        compressedTransitions = null;
+        Q = states.size();
+        q0 = 0;
+        O = newO;
+        return new_d;
+    }
+
+    /**
+     * Computes the transitions of a subset of states in the subset construction algorithm. With compressedTransitions,
+     * the successors on all inputs are merged in one pass over the rows of the subset, and only the inputs that
+     * have any are visited. This method only reads the automaton, so it can be called from several threads at once.
+     * @param newMemD - memory-efficient transition function
+     * @param state - subset of states, sorted
+     * @return for every input on which some state of the subset has a transition, the subset of states reached on it,
+     * sorted and without repetitions.
+     */
+    private Int2ObjectMap<int[]> successorSubsets(List<Int2IntMap> newMemD, int[] state) {
+        if(newMemD == null && compressedTransitions != null) {
+            return compressedTransitions.successorsOf(state);
+        }
+        Int2ObjectMap<int[]> successors = new Int2ObjectOpenHashMap<>();
+        for(int in = 0;in!=alphabetSize;++in){
+            int[] stateSubset = determineStateSubset(newMemD, state, in);
+            if(stateSubset.length != 0){
+                successors.put(in, stateSubset);
+            }
+        }
+        return successors;
+    }
+
     /**
      * Build up a new subset of states in the subset construction algorithm.
      * @param newMemD - memory-efficient transition function
      * @param state -
      * @param in - index into alphabet
-     * @return Subset of states used in Subset Construction
+     * @return Subset of states used in Subset Construction, sorted and without repetitions
      */
-    private IntOpenHashSet determineStateSubset(List<Int2IntMap> newMemD, IntSet state, int in) {
-        IntOpenHashSet dest = new IntOpenHashSet();
+    private int[] determineStateSubset(List<Int2IntMap> newMemD, int[] state, int in) {
+        IntArrayList dest = new IntArrayList();
         for(int q: state){
-            if(newMemD == null) {
+            if(newMemD == null && transitionTable != null) {
+                int p = transitionTable[q * alphabetSize + in];
+                if (p != -1) {
+                    dest.add(p);
+                }
+            } else if(newMemD == null) {
                 IntList values = d.get(q).get(in);
                 if (values != null) {
                     dest.addAll(values);
@@ -4073,35 +5699,26 @@ public class Automaton {
                 }
             }
         }
-        return dest;
+        return SubsetTable.canonical(dest);
     }
 
     /**
-     * Calculate new state output (O), from previous O and statesList.
+     * Calculate new state output (O), from previous O and the subsets found by the subset construction.
      * @param O - previous O
-     * @param statesList
+     * @param states
      * @return new O
      */
-    private static IntList calculateNewStateOutput(IntList O, List<IntSet> statesList) {
+    private static IntList calculateNewStateOutput(IntList O, SubsetTable states) {
         IntList newO = new IntArrayList();
-        for(IntSet state: statesList){
-            boolean flag = false;
-            for(int q:state){
-                if(O.getInt(q)!=0){
-                    newO.add(1);
-                    flag=true;
-                    break;
-                }
-            }
-            if(!flag){
-                newO.add(0);
-            }
+        for(int i = 0; i < states.size(); i++){
+            newO.add(states.containsNonZero(i, O) ? 1 : 0);
         }
         return newO;
     }
 
     public void fixLeadingZerosProblem(boolean print, String prefix,StringBuilder log)throws Exception{
         if(TRUE_FALSE_AUTOMATON)return;
+        ensureTransitionMap();
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "fixing leading zeros:" + Q + " states";
@@ -4131,6 +5748,7 @@ public class Automaton {
     }
 
     public void fixTrailingZerosProblem(boolean print, String prefix,StringBuilder log) throws Exception{
+        ensureTransitionMap();
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "fixing trailing zeros:" + Q + " states";
@@ -4255,6 +5873,7 @@ public class Automaton {
     /**Returns the set of states reachable from the initial state by reading 0*
      */
     private IntSet zeroReachableStates(){
+        ensureTransitionMap();
         IntSet result = new IntOpenHashSet();
         Queue<Integer> queue = new LinkedList<>();
         queue.add(q0);
@@ -4278,6 +5897,7 @@ public class Automaton {
      * @return
      */
     private Set<Integer> statesReachableToFinalStatesByZeros(){
+        ensureTransitionMap();
         Set<Integer> result = new HashSet<>();
         Queue<Integer> queue = new LinkedList<>();
         List<Integer> ZERO = new ArrayList<>();
@@ -4305,29 +5925,6 @@ public class Automaton {
         return result;
     }
 
-    /**
-     * For example, suppose that first = [1,2,3], second = [-1,4,2], and equalIndices = [-1,-1,1].
-     * Then the result is [1,2,3,-1,4].
-     * However if second = [-1,4,3] then the result is null
-     * because 3rd element of second is not equal two 2nd element of first.
-     * @param first
-     * @param second
-     * @param equalIndices
-     * @return
-     */
-    private List<Integer> joinTwoInputsForCrossProduct(List<Integer> first,List<Integer> second,int[] equalIndices){
-        List<Integer> R = new ArrayList<>();
-        R.addAll(first);
-        for(int i = 0 ; i < second.size();i++)
-            if(equalIndices[i] == -1)
-                R.add(second.get(i));
-            else{
-                if(!first.get(equalIndices[i]).equals(second.get(i)))
-                    return null;
-            }
-        return R;
-    }
-
     /**
      * Checks if any input has the same label as input i. It then removes copies of input i appropriately. So for example an
      * expression like f(a,a) becomes
@@ -4353,57 +5950,117 @@ public class Automaton {
         removeSameInputs(i+1);
     }
 
+    /**
+     * Restricts this automaton to the inputs on which the tracks with the given labels read the same symbol, and then
+     * keeps only the first of these tracks. For example when label = ["x","y","z"] and labels = ["x","z"], the result
+     * has label = ["x","y"] and accepts (x,y) exactly when this automaton accepts (x,y,x).
+     * This is what "E z (M & z = x)" computes, but without the product with an equality automaton and the subset
+     * construction that follows it: every input of the result comes from exactly one input of this automaton, so the
+     * transitions are simply filtered and renumbered, and a deterministic automaton stays deterministic (this also
+     * works for word automata).
+     * @param labels - labels of this automaton, whose tracks must have the same alphabet
+     * @throws Exception
+     */
+    public void restrictDiagonal(List<String> labels) throws Exception {
+        if (TRUE_FALSE_AUTOMATON || label == null) {
+            throw new Exception("invalid use of method restrictDiagonal");
+        }
+        List<Integer> I = new ArrayList<>();
+        for (String l : labels) {
+            int i = label.indexOf(l);
+            if (i == -1) {
+                throw new Exception("Variable " + l + " is not an input of the automaton.");
+            }
+            if (!I.contains(i)) {
+                if (!I.isEmpty() && !UtilityMethods.areEqual(A.get(I.get(0)), A.get(i))) {
+                    throw new Exception("Inputs " + I.get(0) + " and " + i + " have the same label but different alphabets.");
+                }
+                I.add(i);
+            }
+        }
+        if (I.size() > 1) {
+            Collections.sort(I);
+            reduceDimension(I);
+        }
+    }
+
+    /**
+     * Keeps the inputs on which the tracks in I (in increasing order) read the same symbol, and removes all of these
+     * tracks but the first. See restrictDiagonal.
+     */
     private void reduceDimension(List<Integer> I){
+        int[] sizes = new int[A.size()], strides = new int[A.size()], newStrides = new int[A.size()];
+        int stride = 1, newStride = 1;
+        for (int i = 0; i < A.size(); i++) {
+            sizes[i] = A.get(i).size();
+            strides[i] = stride;
+            stride *= sizes[i];
+            if (!I.contains(i) || I.indexOf(i) == 0) {
+                newStrides[i] = newStride;
+                newStride *= sizes[i];
+            }
+        }
+        int first = I.get(0);
+        int[] others = new int[I.size() - 1];
+        // for a value index k of the first track, the index of the same value in the alphabets of the others
+        int[][] sameValue = new int[others.length][sizes[first]];
+        for (int j = 0; j < others.length; j++) {
+            others[j] = I.get(j + 1);
+            for (int k = 0; k < sizes[first]; k++) {
+                sameValue[j][k] = A.get(others[j]).indexOf(A.get(first).get(k));
+            }
+        }
+        int newAlphabetSize = newStride;
+
+        int[] newTable = null;
+        CompressedTransitions.Builder newTransitions = null;
+        if (transitionTable != null) {
+            newTable = new int[Q * newAlphabetSize];
+            Arrays.fill(newTable, -1);
+        }
+        else {
+            newTransitions = new CompressedTransitions.Builder();
+        }
+        for (int q = 0; q < Q; q++) {
+            for (int n : inputsOf(q)) {
+                int k = (n / strides[first]) % sizes[first];
+                boolean onDiagonal = true;
+                for (int j = 0; j < others.length && onDiagonal; j++) {
+                    onDiagonal = (n / strides[others[j]]) % sizes[others[j]] == sameValue[j][k];
+                }
+                if (!onDiagonal) continue;
+                int m = 0;
+                for (int i = 0; i < sizes.length; i++) {
+                    if (newStrides[i] != 0) m += newStrides[i] * ((n / strides[i]) % sizes[i]);
+                }
+                if (newTable != null) {
+                    newTable[q * newAlphabetSize + m] = transitionTable[q * alphabetSize + n];
+                    continue;
+                }
+                for (int p : successorsOf(q, n)) {
+                    newTransitions.add(q, m, p);
+                }
+            }
+        }
+        d = null;
+        transitionTable = newTable;
+        compressedTransitions = newTransitions == null ? null : newTransitions.build(Q);
+        canonized = false;
+
         List<List<Integer>> newAlphabet = new ArrayList<>();
-        List<Integer> newEncoder = new ArrayList<>();
-        newEncoder.add(1);
         for(int i = 0 ; i < A.size();i++)
             if(!I.contains(i) || I.indexOf(i) == 0)
                 newAlphabet.add(new ArrayList<>(A.get(i)));
-        for(int i = 0 ; i < newAlphabet.size()-1;i++)
-            newEncoder.add(newEncoder.get(i)*newAlphabet.get(i).size());
-        List<Integer> map = new ArrayList<>();
-        for(int n = 0 ; n < alphabetSize;n++)
-            map.add(mapToReducedEncodedInput(n, I, newEncoder, newAlphabet));
-        List<Int2ObjectRBTreeMap<IntList>> new_d = new ArrayList<>();
-        for(int q = 0 ; q < Q;q++){
-            Int2ObjectRBTreeMap<IntList> currentStatesTransition = new Int2ObjectRBTreeMap<>();
-            new_d.add(currentStatesTransition);
-            for(int n:d.get(q).keySet()){
-                int m = map.get(n);
-                if(m != -1){
-                    if(currentStatesTransition.containsKey(m))
-                        currentStatesTransition.get(m).addAll(d.get(q).get(n));
-                    else
-                        currentStatesTransition.put(m, new IntArrayList(d.get(q).get(n)));
-                }
-            }
-        }
-        d = new_d;
         I.remove(0);
         A = newAlphabet;
         UtilityMethods.removeIndices(NS,I);
         encoder = null;
-        alphabetSize = 1;
-        for(List<Integer> x:A)
-            alphabetSize *= x.size();
+        alphabetSize = newAlphabetSize;
         UtilityMethods.removeIndices(label, I);
     }
 
-    private int mapToReducedEncodedInput(int n,List<Integer> I,List<Integer> newEncoder,List<List<Integer>> newAlphabet){
-        if(I.size() <= 1)return n;
-        List<Integer> x = decode(n);
-        for(int i = 1 ; i < I.size();i++)
-            if(x.get(I.get(i)) != x.get(I.get(0)))
-                return -1;
-        List<Integer> y = new ArrayList<>();
-        for(int i = 0 ; i < x.size();i++)
-            if(!I.contains(i) || I.indexOf(i) == 0)
-                y.add(x.get(i));
-        return encode(y, newAlphabet, newEncoder);
-    }
-
     public List<Int2ObjectRBTreeMap<IntList>> get_transition_function() {
+        ensureTransitionMap();
         return d;
     }
     /*private boolean connected(int p,int q,int i){
@@ -0,0 +1,179 @@
+package Automata;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.Arrays;
+
+/**
+ * A nondeterministic transition function in compressed sparse row form. It takes the place of Automaton.d for the
+ * automata built by quantify, reverse, star, concat, and crossProduct, which are then handed straight to the subset
+ * construction.
+ * <br>
+ * The inputs on which state q has transitions are letters[stateOffsets[q]], ..., letters[stateOffsets[q+1]-1],
+ * sorted in increasing order. On the input letters[k], the state goes to
+ * targets[letterOffsets[k]], ..., targets[letterOffsets[k+1]-1], which are distinct and sorted as well.
+ * For example, with stateOffsets = [0,2,2], letters = [0,1], letterOffsets = [0,1,3] and targets = [0,0,1],
+ * state 0 goes to 0 on 0 and to 0,1 on 1, and state 1 has no transitions.
+ * <br>
+ * Objects of this class are never modified once built, so automata can share them.
+ */
+public class CompressedTransitions {
+    int[] stateOffsets;
+    int[] letters;
+    int[] letterOffsets;
+    int[] targets;
+
+    int numberOfStates() {
+        return stateOffsets.length - 1;
+    }
+
+    /**
+     * @return the index k such that letters[k] = x among the transitions of q, or -1 if q has no transition on x.
+     */
+    int indexOf(int q, int x) {
+        int k = Arrays.binarySearch(letters, stateOffsets[q], stateOffsets[q + 1], x);
+        return k < 0 ? -1 : k;
+    }
+
+    /**
+     * @return the inputs on which q has a transition, in increasing order. This is a view of letters, which cannot be
+     * modified.
+     */
+    IntList inputsOf(int q) {
+        return new Row(letters, stateOffsets[q], stateOffsets[q + 1]);
+    }
+
+    /**
+     * @return the states q goes to on x, or null if there are none. This is a view of targets, which cannot be
+     * modified.
+     */
+    IntList successorsOf(int q, int x) {
+        int k = indexOf(q, x);
+        if (k == -1) return null;
+        return new Row(targets, letterOffsets[k], letterOffsets[k + 1]);
+    }
+
+    /**
+     * @return true if no state has more than one transition on any input.
+     */
+    boolean isDeterministic() {
+        for (int k = 0; k < letters.length; k++) {
+            if (letterOffsets[k + 1] - letterOffsets[k] > 1) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The part array[from], ..., array[to-1] of one of the arrays above, without copying it.
+     */
+    private static final class Row extends AbstractIntList {
+        private final int[] array;
+        private final int from, to;
+
+        Row(int[] array, int from, int to) {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int getInt(int i) {
+            if (i < 0 || i >= to - from) throw new IndexOutOfBoundsException(i);
+            return array[from + i];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /**
+     * Merges the transitions of all states in the given set. This is one sequential scan over the rows of those
+     * states, instead of one lookup per state and input.
+     * @return for every input on which some state of the set has a transition, the set of states reached on it,
+     * sorted and without repetitions.
+     */
+    Int2ObjectMap<int[]> successorsOf(int[] states) {
+        Int2ObjectMap<IntArrayList> merged = new Int2ObjectOpenHashMap<>();
+        for (int q : states) {
+            for (int k = stateOffsets[q]; k < stateOffsets[q + 1]; k++) {
+                IntArrayList dest = merged.get(letters[k]);
+                if (dest == null) {
+                    dest = new IntArrayList();
+                    merged.put(letters[k], dest);
+                }
+                dest.addElements(dest.size(), targets, letterOffsets[k], letterOffsets[k + 1] - letterOffsets[k]);
+            }
+        }
+        Int2ObjectMap<int[]> result = new Int2ObjectOpenHashMap<>(merged.size());
+        for (Int2ObjectMap.Entry<IntArrayList> entry : merged.int2ObjectEntrySet()) {
+            result.put(entry.getIntKey(), SubsetTable.canonical(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Collects transitions (q, x, p), meaning q goes to p on x, in any order and with repetitions, and builds the
+     * compressed form out of them.
+     */
+    static class Builder {
+        private final IntArrayList sources = new IntArrayList();
+        // the input in the upper and the target in the lower 32 bits
+        private final LongArrayList transitions = new LongArrayList();
+
+        void add(int q, int x, int p) {
+            sources.add(q);
+            transitions.add(((long) x << 32) | p);
+        }
+
+        CompressedTransitions build(int numberOfStates) {
+            CompressedTransitions T = new CompressedTransitions();
+
+            // bucket the transitions by their source state
+            T.stateOffsets = new int[numberOfStates + 1];
+            for (int i = 0; i < sources.size(); i++) {
+                T.stateOffsets[sources.getInt(i) + 1]++;
+            }
+            for (int q = 0; q < numberOfStates; q++) {
+                T.stateOffsets[q + 1] += T.stateOffsets[q];
+            }
+            int[] next = Arrays.copyOf(T.stateOffsets, numberOfStates);
+            long[] sorted = new long[transitions.size()];
+            for (int i = 0; i < sources.size(); i++) {
+                sorted[next[sources.getInt(i)]++] = transitions.getLong(i);
+            }
+
+            // sort every bucket by input, then target, and drop repeated transitions
+            IntArrayList letters = new IntArrayList();
+            IntArrayList letterOffsets = new IntArrayList();
+            IntArrayList targets = new IntArrayList();
+            for (int q = 0; q < numberOfStates; q++) {
+                int from = T.stateOffsets[q], to = T.stateOffsets[q + 1];
+                T.stateOffsets[q] = letters.size();
+                Arrays.sort(sorted, from, to);
+                for (int i = from; i < to; i++) {
+                    if (i > from && sorted[i] == sorted[i - 1]) continue;
+                    int x = (int) (sorted[i] >>> 32);
+                    if (letters.size() == T.stateOffsets[q] || letters.getInt(letters.size() - 1) != x) {
+                        letters.add(x);
+                        letterOffsets.add(targets.size());
+                    }
+                    targets.add((int) sorted[i]);
+                }
+            }
+            T.stateOffsets[numberOfStates] = letters.size();
+            letterOffsets.add(targets.size());
+
+            T.letters = letters.toIntArray();
+            T.letterOffsets = letterOffsets.toIntArray();
+            T.targets = targets.toIntArray();
+            return T;
+        }
+    }
+}
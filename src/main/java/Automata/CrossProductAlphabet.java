@@ -0,0 +1,129 @@
+package Automata;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps a pair of inputs (x of the first automaton, y of the second) to the input of their cross product, without
+ * building the table of all alphabetSize * M.alphabetSize pairs.
+ * <br>
+ * The inputs of the cross product are the inputs of the first automaton followed by the inputs of the second one
+ * that have no label in common with the first. With the mixed-radix encoding of inputs (see Automaton.encode),
+ * the joined input is therefore x + first.alphabetSize * offset(y), where offset(y) only depends on the
+ * coordinates of y that are not shared. The pair is compatible exactly when the shared coordinates of x and y
+ * agree, which we check by comparing key(x) and key(y): the encodings of those shared coordinates alone.
+ * <br>
+ * key and offset are computed one coordinate at a time with strides, and only for the inputs that are looked up,
+ * so the cost grows with the letters occurring in reachable pairs of states, not with the size of the joint alphabet.
+ */
+class CrossProductAlphabet {
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final int firstAlphabetSize;
+
+    // strides and sizes of the coordinates of the first automaton
+    private final int[] firstStrides, firstSizes;
+    // strides and sizes of the coordinates of the second automaton
+    private final int[] secondStrides, secondSizes;
+    // for every coordinate of the second automaton, the shared coordinate of the first one, or -1
+    private final int[] sameInputs;
+    /**
+     * For a shared coordinate i of the second automaton, valueIndices[i][k] is the index in the first automaton's
+     * alphabet of the k-th value of the second automaton's alphabet (the two alphabets are equal as sets, but may be
+     * in a different order).
+     */
+    private final int[][] valueIndices;
+    // for every coordinate of the second automaton, the stride of its coordinate in the cross product (or in the key)
+    private final int[] productStrides, keyStrides;
+
+    // computed on demand
+    private final int[] firstKeys, secondKeys, secondOffsets;
+
+    CrossProductAlphabet(Automaton first, Automaton second, int[] sameInputsInSecondAndFirst) {
+        firstAlphabetSize = first.alphabetSize;
+        firstSizes = sizes(first.A);
+        firstStrides = strides(firstSizes);
+        secondSizes = sizes(second.A);
+        secondStrides = strides(secondSizes);
+        sameInputs = sameInputsInSecondAndFirst;
+
+        valueIndices = new int[secondSizes.length][];
+        productStrides = new int[secondSizes.length];
+        keyStrides = new int[secondSizes.length];
+        int productStride = 1, keyStride = 1;
+        for (int i = 0; i < secondSizes.length; i++) {
+            if (sameInputs[i] == -1) {
+                productStrides[i] = productStride;
+                productStride *= secondSizes[i];
+            }
+            else {
+                List<Integer> values = second.A.get(i);
+                List<Integer> firstValues = first.A.get(sameInputs[i]);
+                valueIndices[i] = new int[values.size()];
+                for (int k = 0; k < values.size(); k++) {
+                    valueIndices[i][k] = firstValues.indexOf(values.get(k));
+                }
+                keyStrides[i] = keyStride;
+                keyStride *= secondSizes[i];
+            }
+        }
+
+        firstKeys = new int[first.alphabetSize];
+        secondKeys = new int[second.alphabetSize];
+        secondOffsets = new int[second.alphabetSize];
+        Arrays.fill(firstKeys, UNKNOWN);
+        Arrays.fill(secondKeys, UNKNOWN);
+    }
+
+    /**
+     * @return the input of the cross product made of x and y, or -1 if they disagree on a shared coordinate.
+     */
+    int join(int x, int y) {
+        if (firstKeys[x] == UNKNOWN) {
+            int key = 0;
+            for (int i = 0; i < sameInputs.length; i++) {
+                int j = sameInputs[i];
+                if (j != -1) {
+                    key += keyStrides[i] * ((x / firstStrides[j]) % firstSizes[j]);
+                }
+            }
+            firstKeys[x] = key;
+        }
+        if (secondKeys[y] == UNKNOWN) {
+            int key = 0, offset = 0;
+            for (int i = 0; i < sameInputs.length; i++) {
+                int k = (y / secondStrides[i]) % secondSizes[i];
+                if (sameInputs[i] == -1) {
+                    offset += productStrides[i] * k;
+                }
+                else {
+                    key += keyStrides[i] * valueIndices[i][k];
+                }
+            }
+            secondOffsets[y] = offset;
+            secondKeys[y] = key;
+        }
+        if (firstKeys[x] != secondKeys[y]) {
+            return -1;
+        }
+        return x + firstAlphabetSize * secondOffsets[y];
+    }
+
+    private static int[] sizes(List<List<Integer>> A) {
+        int[] sizes = new int[A.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = A.get(i).size();
+        }
+        return sizes;
+    }
+
+    private static int[] strides(int[] sizes) {
+        int[] strides = new int[sizes.length];
+        int stride = 1;
+        for (int i = 0; i < sizes.length; i++) {
+            strides[i] = stride;
+            stride *= sizes[i];
+        }
+        return strides;
+    }
+}
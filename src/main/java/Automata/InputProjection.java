@@ -0,0 +1,48 @@
+package Automata;
+
+import java.util.List;
+
+/**
+ * Maps an input of an automaton to the input it becomes once some of its coordinates are dropped, as in an
+ * existential quantification.
+ * <br>
+ * With the mixed-radix encoding of inputs (see Automaton.encode), the value of coordinate i of input z is
+ * (z / strides[i]) % sizes[i], so the projected input is the sum of these values times the strides of the kept
+ * coordinates in the smaller alphabet. This is computed coordinate by coordinate, for the inputs that occur,
+ * and never decodes the whole alphabet.
+ */
+class InputProjection {
+    private final int[] strides, sizes;
+    // the stride of every coordinate in the projected alphabet, or 0 if the coordinate is dropped
+    private final int[] projectedStrides;
+
+    /**
+     * @param A - the alphabet of every coordinate
+     * @param dropped - dropped[i] is true when coordinate i is dropped
+     */
+    InputProjection(List<List<Integer>> A, boolean[] dropped) {
+        strides = new int[A.size()];
+        sizes = new int[A.size()];
+        projectedStrides = new int[A.size()];
+        int stride = 1, projectedStride = 1;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = A.get(i).size();
+            strides[i] = stride;
+            stride *= sizes[i];
+            if (!dropped[i]) {
+                projectedStrides[i] = projectedStride;
+                projectedStride *= sizes[i];
+            }
+        }
+    }
+
+    int apply(int z) {
+        int projected = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (projectedStrides[i] != 0) {
+                projected += projectedStrides[i] * ((z / strides[i]) % sizes[i]);
+            }
+        }
+        return projected;
+    }
+}
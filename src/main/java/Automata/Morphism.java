@@ -129,7 +129,7 @@ public class Morphism {
         // this word automaton is purely symbolic in input and we want it in the exact order given
         promotion.canonized = true;
         // the base for the automata is the length of the longest image of any letter under the morphism
-        promotion.NS.add(new NumberSystem("msd_" + maxImageLength.toString()));
+        promotion.NS.add(NumberSystem.forName("msd_" + maxImageLength.toString()));
 
         return promotion;
     }
@@ -20,15 +20,20 @@ package Automata;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import Main.UtilityMethods;
 import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 
 /**
  * The class NumberSystem represents a number system.<br>
@@ -106,9 +111,68 @@ public class NumberSystem {
 	 * multiplicationsDynamicTable(3) is the automaton that gets two inputs, and accepts if the second is 3 times the first. So the input is ordered!<br>
 	 * divisionsDynamicTable(5) is the automaton that gets two inputs, and accepts if the second is one-third of the first. So the input is ordered!<br>
 	 */
-	HashMap<Integer,Automaton> constantsDynamicTable;
-	HashMap<Integer,Automaton> multiplicationsDynamicTable;
-	HashMap<Integer,Automaton> divisionsDynamicTable;
+	Map<Integer,Automaton> constantsDynamicTable;
+	Map<Integer,Automaton> multiplicationsDynamicTable;
+	Map<Integer,Automaton> divisionsDynamicTable;
+	/**
+	 * modulosDynamicTable(5) is the automaton that gets two inputs, and accepts if the second is the first mod 5. So the input is ordered!
+	 */
+	Map<Integer,Automaton> modulosDynamicTable;
+	/**
+	 * representationsDynamicTable.get(4) is the representation of 4 returned by getRepresentation(4), or null if
+	 * constant(4) is not of the form getRepresentation expects.
+	 */
+	Map<Integer,List<Integer>> representationsDynamicTable;
+
+	/**
+	 * The base, when this number system is base n or base -n for an integer n > 1 and has no file in Custom Bases for
+	 * its addition or its set of all representations: then addition is the one built by base_n_addition or
+	 * base_neg_n_addition, and multiplication(n) is built directly by carryMultiplication. It is 0 for every other
+	 * number system.
+	 */
+	int standardBase;
+
+	/**
+	 * Keeps the automata of the dynamic tables above on disk, from one run to the next. See NumberSystemMemo.
+	 */
+	NumberSystemMemo memo;
+
+	/**
+	 * The number systems built so far, by name. Building a number system reads its files in Custom Bases and
+	 * computes its automata, and its dynamic tables fill up as it is used, so number systems are looked up here with
+	 * forName, and each one is built once per process. When the jar comes with a prebuilt copy of the number system
+	 * (see NumberSystemBundle), forName reads it from there instead of building it.
+	 */
+	private static final Map<String,NumberSystem> numberSystems = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the number system with the given name, built on the first call. This is safe to call from several
+	 * threads: if two of them build the same number system at once, they both get the one that was registered first.
+	 * @throws Exception if the number system is not defined
+	 */
+	public static NumberSystem forName(String name) throws Exception {
+		NumberSystem ns = numberSystems.get(name);
+		if (ns == null) {
+			// not built inside the map, since building a number system can look up other ones
+			ns = NumberSystemBundle.load(name);
+			if (ns == null) {
+				ns = new NumberSystem(name);
+			}
+			NumberSystem registered = numberSystems.putIfAbsent(name, ns);
+			if (registered != null) {
+				ns = registered;
+			}
+		}
+		return ns;
+	}
+
+	/**
+	 * Drops the number system with the given name, if it was built, so that the next forName builds it again from
+	 * the files in Custom Bases. Used when these files change.
+	 */
+	public static void forget(String name) {
+		numberSystems.remove(name);
+	}
 
 	boolean flag_should_we_use_allRepresentations = true;
 
@@ -147,10 +211,7 @@ public class NumberSystem {
 	}
 
 	public NumberSystem(String name) throws Exception{
-		this.name = name;
-		String msd_or_lsd = name.substring(0, name.indexOf("_"));
-		is_msd = msd_or_lsd.equals("msd");
-		is_neg = name.contains("neg");
+		this(name, true);
 		String base = name.substring(name.indexOf("_") + 1);
 
 		/**
@@ -180,8 +241,10 @@ public class NumberSystem {
 		} else {
 			if(UtilityMethods.isNumber(base) && Integer.parseInt(base) > 1) {
 				base_n_addition(Integer.parseInt(base));
+				standardBase = Integer.parseInt(base);
 			} else if(UtilityMethods.parseNegNumber(base) > 1) {
 				base_neg_n_addition(UtilityMethods.parseNegNumber(base));
+				standardBase = -UtilityMethods.parseNegNumber(base);
 			} else {
 				throw new Exception("Number system " + name + " is not defined.");
 			}
@@ -264,16 +327,35 @@ public class NumberSystem {
 		}
 
 		if(flag_should_we_use_allRepresentations) {
+			standardBase = 0;
 			for(int i = 0 ; i < allRepresentations.NS.size(); i++) {
 				allRepresentations.NS.set(i, this);
 			}
 
 			applyAllRepresentations();
 		}
+	}
 
-		constantsDynamicTable = new HashMap<>();
-		multiplicationsDynamicTable = new HashMap<>();
-		divisionsDynamicTable = new HashMap<>();
+	/**
+	 * Makes a number system with the given name and empty dynamic tables, but without its automata.
+	 * NumberSystemBundle fills them in with the ones it has read.
+	 * @param name
+	 * @param flag_should_we_use_allRepresentations
+	 */
+	NumberSystem(String name, boolean flag_should_we_use_allRepresentations) {
+		this.name = name;
+		String msd_or_lsd = name.substring(0, name.indexOf("_"));
+		is_msd = msd_or_lsd.equals("msd");
+		is_neg = name.contains("neg");
+		this.flag_should_we_use_allRepresentations = flag_should_we_use_allRepresentations;
+
+		// a number system is shared by all the threads that look it up with forName
+		constantsDynamicTable = Collections.synchronizedMap(new HashMap<>());
+		multiplicationsDynamicTable = Collections.synchronizedMap(new HashMap<>());
+		divisionsDynamicTable = Collections.synchronizedMap(new HashMap<>());
+		modulosDynamicTable = Collections.synchronizedMap(new HashMap<>());
+		representationsDynamicTable = Collections.synchronizedMap(new HashMap<>());
+		memo = new NumberSystemMemo(name);
 	}
 
 	/**
@@ -346,7 +428,7 @@ public class NumberSystem {
 	 * automaton unset.
 	 * @throws Exception
 	 */
-	public void setBaseChange() throws Exception {
+	public synchronized void setBaseChange() throws Exception {
 		if(baseChange != null) return;
 
 		String base = name.substring(name.indexOf("_") + 1);
@@ -589,11 +671,11 @@ public class NumberSystem {
 		baseChange.d.add(new Int2ObjectRBTreeMap<>());
 		baseChange.d.add(new Int2ObjectRBTreeMap<>());
 		if(is_msd) {
-			baseChange.NS.add(new NumberSystem("msd_"+n));
-			baseChange.NS.add(new NumberSystem("msd_neg_"+n));
+			baseChange.NS.add(forName("msd_"+n));
+			baseChange.NS.add(forName("msd_neg_"+n));
 		} else {
-			baseChange.NS.add(new NumberSystem("lsd_"+n));
-			baseChange.NS.add(new NumberSystem("lsd_neg_"+n));
+			baseChange.NS.add(forName("lsd_"+n));
+			baseChange.NS.add(forName("lsd_neg_"+n));
 		}
 		baseChange.A.add(new ArrayList<>(alphabet));
 		baseChange.A.add(alphabet);
@@ -646,7 +728,7 @@ public class NumberSystem {
 	public NumberSystem negative_number_system() throws Exception {
 		String msd_or_lsd = name.substring(0, name.indexOf("_"));
 		String base = name.substring(name.indexOf("_") + 1);
-		return new NumberSystem(msd_or_lsd + "_neg_" + base);
+		return forName(msd_or_lsd + "_neg_" + base);
 	}
 
 	/**
@@ -661,10 +743,61 @@ public class NumberSystem {
 		return constant(n).clone();
 	}
 
+	/**
+	 * @param n
+	 * @return the digits of n, in the order they are read, when the automaton of n accepts exactly its padding with
+	 * zeros: 0*digits for msd, and digits0* for lsd. This is what Automaton.specialize takes. Returns null when the
+	 * automaton of n is not of this form.
+	 * @throws Exception
+	 */
+	public List<Integer> getRepresentation(int n) throws Exception{
+		if (representationsDynamicTable.containsKey(n)) {
+			return representationsDynamicTable.get(n);
+		}
+		Automaton C = constant(n);
+		List<Integer> representation = null;
+		IntList word = C.shortestAcceptedWord();
+		int zero = C.A.get(0).indexOf(0);
+		if (word != null && zero != -1) {
+			// the automaton accepting exactly 0*word (msd) or word0* (lsd)
+			Automaton R = new Automaton();
+			R.Q = word.size() + 1;
+			R.q0 = 0;
+			R.A.add(new ArrayList<>(C.A.get(0)));
+			R.NS.add(this);
+			R.alphabetSize = C.alphabetSize;
+			for (int q = 0; q < R.Q; q++) {
+				R.O.add(q == word.size() ? 1 : 0);
+				R.d.add(new Int2ObjectRBTreeMap<>());
+			}
+			for (int k = 0; k < word.size(); k++) {
+				R.d.get(k).put(word.getInt(k), new IntArrayList());
+				R.d.get(k).get(word.getInt(k)).add(k + 1);
+			}
+			int loop = is_msd ? 0 : word.size();
+			if (!R.d.get(loop).containsKey(zero)) {
+				R.d.get(loop).put(zero, new IntArrayList());
+			}
+			R.d.get(loop).get(zero).add(loop);
+			if (R.equals(C)) {
+				representation = new ArrayList<>();
+				for (int x : word) {
+					representation.add(C.A.get(0).get(x));
+				}
+			}
+		}
+		representationsDynamicTable.put(n, representation);
+		return representation;
+	}
+
 	public Automaton getDivision(int n) throws Exception{
 		return division(n).clone();
 	}
 
+	public Automaton getModulo(int n) throws Exception{
+		return modulo(n).clone();
+	}
+
 	public Automaton getMultiplication(int n) throws Exception{
 		return multiplication(n).clone();
 	}
@@ -739,8 +872,7 @@ public class NumberSystem {
 			N.bind(B);
 			M = comparison(a, B, comparisonOperator);
 		}
-		M = M.and(N,false,null,null);
-		M.quantify(B,false,null,null);
+		M = M.andThenQuantify(N,B,false,null,null);
 		return M;
 	}
 
@@ -805,8 +937,9 @@ public class NumberSystem {
 	 * @param a
 	 * @param b an integer
 	 * @param c
-	 * @param arithmeticOperator can be any of "+","-","*","/"
-	 * @return an Automaton with two inputs, with labels a and c. It accepts iff c = a arithmeticOperator b.
+	 * @param arithmeticOperator can be any of "+","-","*","/","%"
+	 * @return an Automaton with two inputs, with labels a and c. It accepts iff c = a arithmeticOperator b, where
+	 * a % b is a mod b.
 	 * Note that the order of inputs, in the resulting
 	 * automaton, is not guaranteed to be in any fixed order like [a,c] or [c,a].
 	 * So the input is not ordered!
@@ -831,6 +964,12 @@ public class NumberSystem {
 			N.bind(a,c);
 			return N;
 		}
+		if(arithmeticOperator.equals("%")){
+			if(b == 0)throw new Exception("division by zero");
+			N = getModulo(b);
+			N.bind(a,c);
+			return N;
+		}
 
 		Automaton M;
 		String B = a+c; //this way we make sure that B is not equal to a or c
@@ -843,8 +982,7 @@ public class NumberSystem {
 			N.bind(B);
 			M = arithmetic(a, B, c, arithmeticOperator);
 		}
-		M = M.and(N,false,null,null);
-		M.quantify(B,false,null,null);
+		M = M.andThenQuantify(N,B,false,null,null);
 		return M;
 	}
 
@@ -892,8 +1030,7 @@ public class NumberSystem {
 			N.bind(A);
 			M = arithmetic(A, b, c, arithmeticOperator);
 		}
-		M = M.and(N,false,null,null);
-		M.quantify(A,false,null,null);
+		M = M.andThenQuantify(N,A,false,null,null);
 		return M;
 	}
 
@@ -938,8 +1075,7 @@ public class NumberSystem {
 			N.bind(C);
 			M = arithmetic(a, b, C, arithmeticOperator);
 		}
-		M = M.and(N,false,null,null);
-		M.quantify(C,false,null,null);
+		M = M.andThenQuantify(N,C,false,null,null);
 		return M;
 	}
 
@@ -957,7 +1093,11 @@ public class NumberSystem {
 			return constantsDynamicTable.get(n);
 		}
 
-		Automaton P;
+		Automaton P = memo.read(this, "constant", n);
+		if (P != null) {
+			constantsDynamicTable.put(n, P);
+			return P;
+		}
 		if (n == 0) {
 			P = make_zero();
 		} else if (n == 1) {
@@ -969,8 +1109,7 @@ public class NumberSystem {
 			M.bind(b);
 			// Eb, a + b = 0 & b = -n
 			P = arithmetic(a,b,0, "+");
-			P = P.and(M, false, null, null);
-			P.quantify(b, false, null, null);
+			P = P.andThenQuantify(M, b, false, null, null);
 		} else { // n > 0
 			String a = "a", b = "b", c = "c";
 			// a = floor(n/2)
@@ -986,6 +1125,7 @@ public class NumberSystem {
 			P.quantify(a, b, is_msd, false, null, null);
 		}
 		constantsDynamicTable.put(n, P);
+		memo.write("constant", n, P);
 		return P;
 	}
 
@@ -1000,18 +1140,28 @@ public class NumberSystem {
 		if(n == 0)throw new Exception("multiplication(0)");
 		if(multiplicationsDynamicTable.containsKey(n))return multiplicationsDynamicTable.get(n);
 		//note that the case of n==0 is handled in Computer class
-		Automaton P;
 		if(n == 1){
-			P = equality;
-		} else if (n < 0) {
+			multiplicationsDynamicTable.put(n, equality);
+			return equality;
+		}
+		if(standardBase != 0){
+			Automaton P = carryMultiplication(n);
+			multiplicationsDynamicTable.put(n, P);
+			return P;
+		}
+		Automaton P = memo.read(this, "multiplication", n);
+		if(P != null){
+			multiplicationsDynamicTable.put(n, P);
+			return P;
+		}
+		if (n < 0) {
 			String a = "a",b = "b",c = "c";
 			// c = (-n)*a
 			Automaton M = getMultiplication(-n);
 			M.bind(a,c);
 			// Ec b + c = 0 & c = (-n)*a
 			P = arithmetic(b,c,0, "+");
-			P = P.and(M, false, null, null);
-			P.quantify(c,false,null,null);
+			P = P.andThenQuantify(M, c, false, null, null);
 			P.sortLabel();
 		} else if (n==2) {
 			String a = "a",d = "d";
@@ -1029,8 +1179,7 @@ public class NumberSystem {
 
 			if (n % 2 == 0) { // suppose n = 2k
 				D.bind(b, d);
-				P = M.and(D, false, null, null);
-				P.quantify(b, false, null, null);
+				P = M.andThenQuantify(D, b, false, null, null);
 			}
 			else { // n = 2k+1
 				D.bind(b, c);
@@ -1054,6 +1203,57 @@ public class NumberSystem {
 			P.sortLabel();
 		}
 		multiplicationsDynamicTable.put(n, P);
+		memo.write("multiplication", n, P);
+		return P;
+	}
+
+	/**
+	 * multiplication(n) for a number system with a standardBase b, built directly from the carries of the
+	 * multiplication, with no product or quantification.<br>
+	 * When reading the digits x of a and y of d from the most significant one, the state is r = n*a' - d', where a'
+	 * and d' are the numbers read so far. Reading x and y takes r to b*r + n*x - y, and a and d are accepted
+	 * iff r = 0 at the end.<br>
+	 * When reading from the least significant digit, the state is the carry c: reading x and y takes c to
+	 * (n*x + c - y)/b when this is an integer, and a and d are accepted iff c = 0 at the end.<br>
+	 * For msd, the remaining digits can only change r by less than |n|+1 times a power of |b|, so a state with
+	 * |r| > |n| never gets back to 0. For lsd, a carry with |c| > |n| can get back to 0 (for n = 1 and b = 2, carry 2
+	 * goes to 1 on (0,0), and then to 0 on (0,1)), but it is never reached: we start from carry 0, and from a carry with
+	 * |c| <= |n| the next one is at most (|n|*(|b|-1) + |n| + |b|-1)/|b| < |n|+1 in absolute value. Hence in both
+	 * cases the states with |r| <= |n| (or |c| <= |n|) are enough, and the automaton has at most 2|n|+1 states before
+	 * minimization.
+	 * @param n
+	 * @return
+	 * @throws Exception
+	 */
+	private Automaton carryMultiplication(int n) throws Exception {
+		int bound = Math.abs(n);
+		List<Integer> alphabet = addition.A.get(0);
+		int size = alphabet.size();
+		Automaton P = twoDigitAutomaton(2 * bound + 1);
+		// the state of r is r + bound
+		P.q0 = bound;
+		for(int r = -bound; r <= bound; r++) {
+			P.O.add(r == 0 ? 1 : 0);
+			for(int j = 0; j < size; j++) {
+				for(int i = 0; i < size; i++) {
+					long t;
+					if(is_msd) {
+						t = (long) standardBase * r + (long) n * alphabet.get(i) - alphabet.get(j);
+					} else {
+						t = (long) n * alphabet.get(i) + r - alphabet.get(j);
+						if(t % standardBase != 0) continue;
+						t /= standardBase;
+					}
+					if(Math.abs(t) <= bound) {
+						// the input (x,y) is encoded as i + size*j
+						P.transitionTable[(r + bound) * P.alphabetSize + i + size * j] = (int) t + bound;
+					}
+				}
+			}
+		}
+		P.minimize(null, false, null, null);
+		P.bind("a", "d");
+		P.sortLabel();
 		return P;
 	}
 
@@ -1068,10 +1268,55 @@ public class NumberSystem {
 		if(!is_neg && n < 0)throw new Exception("constant cannot be negative");
 		if(n == 0)throw new Exception("division by zero");
 		if(divisionsDynamicTable.containsKey(n))return divisionsDynamicTable.get(n);
+		Automaton R;
+		if(standardBase != 0){
+			R = remainderDivision(n);
+		} else {
+			R = memo.read(this, "division", n);
+			if(R == null){
+				R = quotientAndRemainder(n);
+				R.quantify("q", "r", is_msd, false, null, null);
+				R.sortLabel();
+				memo.write("division", n, R);
+			}
+		}
+		divisionsDynamicTable.put(n, R);
+		return R;
+	}
+
+	/**
+	 * The returned automaton has two inputs, and it accepts iff the second is the first mod n, that is, the r with
+	 * 0 <= r < n (n < r <= 0 if n < 0) such that n divides the first minus r. So the input is ordered!
+	 * @param n
+	 * @return
+	 * @throws Exception
+	 */
+	// a mod n = r <=> Eb,q a = q + r & q = n*b & 0 <= r < n
+	private Automaton modulo(int n)throws Exception {
+		if(!is_neg && n < 0)throw new Exception("constant cannot be negative");
+		if(n == 0)throw new Exception("division by zero");
+		if(modulosDynamicTable.containsKey(n))return modulosDynamicTable.get(n);
+		Automaton R;
+		if(standardBase != 0){
+			R = remainderModulo(n);
+		} else {
+			R = memo.read(this, "modulo", n);
+			if(R == null){
+				R = quotientAndRemainder(n);
+				R.quantify("q", "b", is_msd, false, null, null);
+				R.sortLabel();
+				memo.write("modulo", n, R);
+			}
+		}
+		modulosDynamicTable.put(n, R);
+		return R;
+	}
+
+	/**
+	 * @return the automaton of a = q + r & q = n*b & 0 <= r < n (n < r <= 0 if n < 0), with labels a, b, q, r.
+	 */
+	private Automaton quotientAndRemainder(int n)throws Exception {
 		String a = "a",b = "b",r = "r",q = "q";
-		// We want to construct the following expressions
-		// a / n = b <=> Er,q a = q + r & q = n*b & n < r <= 0 if n < 0
-		// a / n = b <=> Er,q a = q + r & q = n*b & 0 <= r < n if n > 0
 		Automaton M = arithmetic(q,r,a,"+");
 		Automaton N = arithmetic(n,b,q,"*");
 		Automaton P1, P2;
@@ -1086,13 +1331,166 @@ public class NumberSystem {
 		}
 		Automaton P = P1.and(P2,false,null,null);
 		Automaton R = M.and(N,false,null,null);
-		R = R.and(P,false,null,null);
-		R.quantify(q,r, is_msd,false,null,null);
+		return R.and(P,false,null,null);
+	}
+
+	/**
+	 * @return whether r is a possible remainder of the division by n: 0 <= r < n, or n < r <= 0 if n < 0.
+	 */
+	private static boolean isRemainder(long r, int n) {
+		return n > 0 ? 0 <= r && r < n : n < r && r <= 0;
+	}
+
+	/**
+	 * division(n) for a number system with a standardBase b, built directly from the remainders, with no product or
+	 * quantification.<br>
+	 * When reading the digits x of a and y of the quotient from the most significant one, the state is s = a' - n*y',
+	 * where a' and y' are the numbers read so far. Reading x and y takes s to b*s + x - n*y, and the words are
+	 * accepted iff s is a remainder of the division by n at the end. As in the msd case of carryMultiplication, the
+	 * remaining digits can only change s by less than |n|+1 times a power of |b|, so a state with |s| > |n| never
+	 * gets back to a remainder, and there are at most 2|n|+1 states. For lsd, this msd automaton is reversed, so the
+	 * carries of lsd are never looked at.
+	 * @param n
+	 * @return
+	 * @throws Exception
+	 */
+	private Automaton remainderDivision(int n) throws Exception {
+		int bound = Math.abs(n);
+		List<Integer> alphabet = addition.A.get(0);
+		int size = alphabet.size();
+		Automaton R = twoDigitAutomaton(2 * bound + 1);
+		// the state of s is s + bound
+		R.q0 = bound;
+		for(int s = -bound; s <= bound; s++) {
+			R.O.add(isRemainder(s, n) ? 1 : 0);
+			for(int j = 0; j < size; j++) {
+				for(int i = 0; i < size; i++) {
+					long t = (long) standardBase * s + alphabet.get(i) - (long) n * alphabet.get(j);
+					if(Math.abs(t) <= bound) {
+						// the input (x,y) is encoded as i + size*j
+						R.transitionTable[(s + bound) * R.alphabetSize + i + size * j] = (int) t + bound;
+					}
+				}
+			}
+		}
+		if(!is_msd) {
+			R.reverse(false, null, null, false);
+		} else {
+			R.minimize(null, false, null, null);
+		}
+		R.bind("a", "b");
 		R.sortLabel();
-		divisionsDynamicTable.put(n, R);
 		return R;
 	}
 
+	/**
+	 * modulo(n) for a number system with a standardBase b, built directly from the remainders, with no product of
+	 * automata or quantification.<br>
+	 * r is a mod n iff n divides a - r and r is a remainder of the division by n. When reading the digits x of a
+	 * and z of r from the most significant one, the first condition only depends on u = (a' - r') mod |n|, where a'
+	 * and r' are the numbers read so far: reading x and z takes u to (b*u + x - z) mod |n|. The second one is
+	 * decided by the minimal automaton of the remainders, whose states before minimization are the values t = r',
+	 * with |t| <= |n| as in remainderDivision. That automaton only has a few states, since t is not needed once
+	 * b*t is out of range, so we build the pairs of u and its states that are reachable, and accept when u = 0 and
+	 * r is a remainder. For lsd, this automaton is reversed.
+	 * @param n
+	 * @return
+	 * @throws Exception
+	 */
+	private Automaton remainderModulo(int n) throws Exception {
+		int bound = Math.abs(n);
+		List<Integer> alphabet = addition.A.get(0);
+		int size = alphabet.size();
+
+		// the remainders of the division by n, read from the most significant digit
+		Automaton T = new Automaton();
+		T.Q = 2 * bound + 1;
+		// the state of t is t + bound
+		T.q0 = bound;
+		T.A.add(new ArrayList<>(alphabet));
+		T.NS.add(this);
+		T.alphabetSize = size;
+		T.d = null;
+		T.transitionTable = new int[T.Q * size];
+		Arrays.fill(T.transitionTable, -1);
+		for(int t = -bound; t <= bound; t++) {
+			T.O.add(isRemainder(t, n) ? 1 : 0);
+			for(int j = 0; j < size; j++) {
+				long next = (long) standardBase * t + alphabet.get(j);
+				if(Math.abs(next) <= bound) {
+					T.transitionTable[(t + bound) * size + j] = (int) next + bound;
+				}
+			}
+		}
+		T.minimize(null, false, null, null);
+		T.ensureTransitionMap();
+
+		// the pair (u,q), for a state q of T, is numbered in the order it is found, and looked up by u + |n|*q
+		Long2IntOpenHashMap number = new Long2IntOpenHashMap();
+		number.defaultReturnValue(-1);
+		LongArrayList keys = new LongArrayList();
+		IntArrayList transitions = new IntArrayList();
+		number.put((long) bound * T.q0, 0);
+		keys.add((long) bound * T.q0);
+		for(int current = 0; current < keys.size(); current++) {
+			long key = keys.getLong(current);
+			long u = key % bound;
+			int q = (int) (key / bound);
+			for(int j = 0; j < size; j++) {
+				IntList dest = T.d.get(q).get(j);
+				for(int i = 0; i < size; i++) {
+					int p = -1;
+					if(dest != null) {
+						long nextU = Math.floorMod(standardBase * u + alphabet.get(i) - alphabet.get(j), (long) bound);
+						long nextKey = nextU + (long) bound * dest.getInt(0);
+						p = number.get(nextKey);
+						if(p == -1) {
+							p = keys.size();
+							number.put(nextKey, p);
+							keys.add(nextKey);
+						}
+					}
+					// the input (x,z) is encoded as i + size*j
+					transitions.add(p);
+				}
+			}
+		}
+		Automaton R = twoDigitAutomaton(keys.size());
+		R.q0 = 0;
+		for(int q = 0; q < R.Q; q++) {
+			long key = keys.getLong(q);
+			R.O.add(key % bound == 0 && T.O.getInt((int) (key / bound)) != 0 ? 1 : 0);
+		}
+		R.transitionTable = transitions.toIntArray();
+		if(!is_msd) {
+			R.reverse(false, null, null, false);
+		} else {
+			R.minimize(null, false, null, null);
+		}
+		R.bind("a", "r");
+		R.sortLabel();
+		return R;
+	}
+
+	/**
+	 * @return an automaton with Q states and no outputs yet, whose two inputs are digits of this number system, with
+	 * a transitionTable of -1s.
+	 */
+	private Automaton twoDigitAutomaton(int Q) {
+		List<Integer> alphabet = addition.A.get(0);
+		Automaton M = new Automaton();
+		M.Q = Q;
+		M.A.add(new ArrayList<>(alphabet));
+		M.A.add(new ArrayList<>(alphabet));
+		M.NS.add(this);
+		M.NS.add(this);
+		M.alphabetSize = alphabet.size() * alphabet.size();
+		M.d = null;
+		M.transitionTable = new int[Q * M.alphabetSize];
+		Arrays.fill(M.transitionTable, -1);
+		return M;
+	}
+
 	private Automaton make_zero()throws Exception {
 		List<Integer> alph = new ArrayList<>();
 		alph.add(0);
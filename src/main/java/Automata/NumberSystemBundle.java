@@ -0,0 +1,275 @@
+package Automata;
+
+import Main.UtilityMethods;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Prebuilt number systems, shipped in the jar as the resource RESOURCE, a bundle written by write and compressed
+ * with gzip.
+ * <br>
+ * Building a number system reads its files in Custom Bases, reverses them when only its complement is given, and
+ * intersects addition, lessThan and equality with the set of all representations. Its constants and multiplications
+ * are computed later, on demand, each one by a chain of products and quantifications. For the number systems that
+ * are used all the time, this is the same work at every start. So the build runs main, which builds them once,
+ * together with their small constants and multiplications, and writes them all to the resource.
+ * NumberSystem.forName then reads a number system from there the first time it is asked for.
+ * <br>
+ * The resource starts with an index: for every number system, its name, the checksums of the files in Custom Bases
+ * that it was built from, and the length of its automata, which follow the index. Only the index is read when the
+ * resource is first used, and a number system is decoded when it is looked up. A number system is not read when
+ * one of these files was changed, added or removed since the build (for example by the ost command), and the
+ * resource is not read at all when it was written by another VERSION of this class. load then returns null, and
+ * the number system is built as usual.
+ */
+class NumberSystemBundle {
+    static final String RESOURCE = "/numberSystems.bin";
+    // "WNSB"
+    private static final int MAGIC = 0x574E5342;
+    // to be increased whenever the format of the resource, or of Automaton.writeBinary, changes
+    static final int VERSION = 2;
+
+    // main stores constant(n) for 0 <= n < CONSTANTS, and multiplication(n) for 2 <= n < MULTIPLICATIONS
+    static final int CONSTANTS = 10;
+    static final int MULTIPLICATIONS = 10;
+
+    private static class Entry {
+        long[] checksums;
+        int offset, length;
+    }
+
+    private final byte[] bytes;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // the resource is read on the first call to load
+    private static class Resource {
+        static final NumberSystemBundle BUNDLE = fromResource();
+    }
+
+    /**
+     * @param bytes - a bundle written by write. When it is not one (say, because it is of another VERSION), the
+     *              bundle is empty.
+     */
+    NumberSystemBundle(byte[] bytes) {
+        this.bytes = bytes;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            List<Entry> index = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                names.add(in.readUTF());
+                Entry entry = new Entry();
+                entry.checksums = new long[in.readInt()];
+                for (int j = 0; j < entry.checksums.length; j++) {
+                    entry.checksums[j] = in.readLong();
+                }
+                entry.length = in.readInt();
+                index.add(entry);
+            }
+            int offset = bytes.length - in.available();
+            for (int i = 0; i < count; i++) {
+                index.get(i).offset = offset;
+                offset += index.get(i).length;
+            }
+            if (offset != bytes.length) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                entries.put(names.get(i), index.get(i));
+            }
+        } catch (IOException e) {
+            entries.clear();
+        }
+    }
+
+    private static NumberSystemBundle fromResource() {
+        InputStream resource = NumberSystemBundle.class.getResourceAsStream(RESOURCE);
+        if (resource != null) {
+            try (InputStream in = new GZIPInputStream(resource)) {
+                return new NumberSystemBundle(in.readAllBytes());
+            } catch (IOException ignored) {
+            }
+        }
+        return new NumberSystemBundle(new byte[0]);
+    }
+
+    /**
+     * @return the number system with the given name, read from the resource, or null if the resource does not have
+     * an up to date copy of it.
+     */
+    static NumberSystem load(String name) {
+        return Resource.BUNDLE.read(name);
+    }
+
+    /**
+     * @return the number system with the given name, read from this bundle, or null if this bundle does not have it,
+     * or has it built from other files than the ones in Custom Bases now.
+     */
+    NumberSystem read(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null || !Arrays.equals(entry.checksums, checksums(name))) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, entry.offset, entry.length));
+            NumberSystem ns = new NumberSystem(name, in.readBoolean());
+            ns.standardBase = in.readInt();
+            ns.addition = Automaton.readBinary(in, ns);
+            ns.lessThan = Automaton.readBinary(in, ns);
+            ns.equality = Automaton.readBinary(in, ns);
+            if (ns.flag_should_we_use_allRepresentations) {
+                ns.allRepresentations = Automaton.readBinary(in, ns);
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                int n = in.readInt();
+                ns.constantsDynamicTable.put(n, Automaton.readBinary(in, ns));
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                int n = in.readInt();
+                ns.multiplicationsDynamicTable.put(n, Automaton.readBinary(in, ns));
+            }
+            return ns;
+        } catch (Exception e) {
+            // then the number system is built from its files
+            return null;
+        }
+    }
+
+    /**
+     * Builds the given number systems, and writes them to out as a bundle.
+     * @param names
+     * @param out
+     * @throws Exception
+     */
+    static void write(List<String> names, OutputStream out) throws Exception {
+        List<byte[]> bodies = new ArrayList<>();
+        for (String name : names) {
+            NumberSystem ns = new NumberSystem(name);
+            // everything is built from the files in Custom Bases, and nothing is left in the cache of the build
+            ns.memo = new NumberSystemMemo(name, null);
+            for (int n = 0; n < CONSTANTS; n++) {
+                ns.get(n);
+            }
+            for (int n = 2; n < MULTIPLICATIONS; n++) {
+                ns.getMultiplication(n);
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(body);
+            data.writeBoolean(ns.flag_should_we_use_allRepresentations);
+            data.writeInt(ns.standardBase);
+            ns.addition.writeBinary(data);
+            ns.lessThan.writeBinary(data);
+            ns.equality.writeBinary(data);
+            if (ns.flag_should_we_use_allRepresentations) {
+                ns.allRepresentations.writeBinary(data);
+            }
+            Map<Integer, Automaton> constants = new TreeMap<>(ns.constantsDynamicTable);
+            data.writeInt(constants.size());
+            for (Map.Entry<Integer, Automaton> constant : constants.entrySet()) {
+                data.writeInt(constant.getKey());
+                constant.getValue().writeBinary(data);
+            }
+            // multiplication(1) is equality itself, and is left for the number system to set up
+            Map<Integer, Automaton> multiplications = new TreeMap<>(ns.multiplicationsDynamicTable);
+            multiplications.remove(1);
+            data.writeInt(multiplications.size());
+            for (Map.Entry<Integer, Automaton> multiplication : multiplications.entrySet()) {
+                data.writeInt(multiplication.getKey());
+                multiplication.getValue().writeBinary(data);
+            }
+            data.flush();
+            bodies.add(body.toByteArray());
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            data.writeUTF(names.get(i));
+            long[] checksums = checksums(names.get(i));
+            data.writeInt(checksums.length);
+            for (long checksum : checksums) {
+                data.writeLong(checksum);
+            }
+            data.writeInt(bodies.get(i).length);
+        }
+        for (byte[] body : bodies) {
+            data.write(body);
+        }
+        data.flush();
+    }
+
+    /**
+     * @return the CRC32 checksums of the files in Custom Bases that the constructor of NumberSystem reads when
+     * building the given number system, with -1 for the ones that do not exist.
+     */
+    static long[] checksums(String name) {
+        boolean is_msd = name.substring(0, name.indexOf("_")).equals("msd");
+        String base = name.substring(name.indexOf("_") + 1);
+        String complementName = (is_msd ? "lsd" : "msd") + "_" + base;
+        String[] suffixes = {".txt", "_addition.txt", "_less_than.txt"};
+        long[] checksums = new long[2 * suffixes.length];
+        for (int i = 0; i < suffixes.length; i++) {
+            checksums[2 * i] = checksum(UtilityMethods.get_address_for_custom_bases() + name + suffixes[i]);
+            checksums[2 * i + 1] = checksum(UtilityMethods.get_address_for_custom_bases() + complementName + suffixes[i]);
+        }
+        return checksums;
+    }
+
+    private static long checksum(String address) {
+        File file = new File(address);
+        if (!file.isFile()) {
+            return -1;
+        }
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(file.toPath()));
+            return crc.getValue();
+        } catch (IOException e) {
+            // a file that cannot be read matches no checksum
+            return -2;
+        }
+    }
+
+    /**
+     * Writes the bundle of the given number systems to a file. Run by the build, see build.gradle.
+     * @param args - the address of the file, followed by the names of the number systems
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new Exception("usage: NumberSystemBundle <output file> <number system> ...");
+        }
+        File file = new File(args[0]);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            write(Arrays.asList(args).subList(1, args.length), out);
+        }
+    }
+}
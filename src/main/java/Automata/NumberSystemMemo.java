@@ -0,0 +1,167 @@
+package Automata;
+
+import Main.UtilityMethods;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache on disk, shared by all runs of Walnut, of the automata that a number system computes on demand:
+ * constant(n), multiplication(n), division(n) and modulo(n). These are built with chains of products and
+ * quantifications, which takes seconds for large n in number systems like msd_fib, while the dynamic tables of
+ * NumberSystem only keep them until the program exits.
+ * <br>
+ * The automaton of operation(n) in the number system called name is kept in the file
+ * Number System Cache/v[VERSION].[CONSTRUCTION_VERSION]/name/operation_n.bin, where VERSION is the version of the
+ * format of NumberSystemBundle, which this file shares: the checksums of the files in Custom Bases that the number
+ * system was built from, followed by the automaton written by Automaton.writeBinary, all compressed with gzip. A file
+ * whose checksums do not match the files in Custom Bases now is out of date: it is not read, and it is overwritten once
+ * the automaton is computed again. Files written before the way these automata are built was changed are not read
+ * either, since they are under another CONSTRUCTION_VERSION.
+ * <br>
+ * The directory Number System Cache is relative to the working directory of Walnut. Another one can be given with the
+ * system property PROPERTY (java -Dwalnut.numberSystemCache=...), and the cache is turned off when that property is
+ * empty. The tests of the build run with the cache turned off, so that they do not depend on earlier runs.
+ * <br>
+ * Several processes can use the cache at once. A file is written to a temporary file in the same directory first, and
+ * then renamed to its name in one step, so a reader either finds the whole file or no file. When two processes compute
+ * the same automaton, they write the same file, and the one that is renamed last stays. Files that cannot be read or
+ * written are treated as missing: the cache never changes what is computed, only how fast.
+ */
+class NumberSystemMemo {
+    // "WNSM"
+    private static final int MAGIC = 0x574E534D;
+    // to be increased whenever NumberSystem builds constant, multiplication, division or modulo in another way
+    static final int CONSTRUCTION_VERSION = 1;
+    // the system property that gives the directory of the cache, see above
+    static final String PROPERTY = "walnut.numberSystemCache";
+
+    private final String name;
+    // where the cache is kept, or null if there is none
+    private final File directory;
+    // computed on first use, since reading the files in Custom Bases again is only needed when the cache is used
+    private long[] checksums;
+
+    /**
+     * The cache of the number system called name, kept in the directory given by the system property PROPERTY, or
+     * else by UtilityMethods.get_address_for_number_system_cache().
+     */
+    NumberSystemMemo(String name) {
+        this(name, defaultDirectory());
+    }
+
+    /**
+     * @param directory - the directory to keep the cache in, or null for no cache at all: read then finds nothing, and
+     *                  write does nothing.
+     */
+    NumberSystemMemo(String name, File directory) {
+        this.name = name;
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory given by the system property PROPERTY, null if it is empty, or the one given by
+     * UtilityMethods.get_address_for_number_system_cache() if it is not set.
+     */
+    static File defaultDirectory() {
+        String address = System.getProperty(PROPERTY);
+        if (address == null) {
+            return new File(UtilityMethods.get_address_for_number_system_cache());
+        }
+        return address.isEmpty() ? null : new File(address);
+    }
+
+    private synchronized long[] checksums() {
+        if (checksums == null) {
+            checksums = NumberSystemBundle.checksums(name);
+        }
+        return checksums;
+    }
+
+    private File file(String operation, int n) {
+        return new File(directory, "v" + NumberSystemBundle.VERSION + "." + CONSTRUCTION_VERSION + "/" +
+                name + "/" + operation + "_" + n + ".bin");
+    }
+
+    /**
+     * @return the automaton of operation(n) for ns, or null if it is not in the cache, or is out of date.
+     */
+    Automaton read(NumberSystem ns, String operation, int n) {
+        if (directory == null) {
+            return null;
+        }
+        File file = file(operation, n);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file.toPath()))))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            long[] checksums = checksums();
+            if (in.readInt() != checksums.length) {
+                return null;
+            }
+            for (long checksum : checksums) {
+                if (in.readLong() != checksum) {
+                    return null;
+                }
+            }
+            return Automaton.readBinary(in, ns);
+        } catch (Exception e) {
+            // a file that is being replaced, or was left damaged, is computed again
+            return null;
+        }
+    }
+
+    /**
+     * Stores M as the automaton of operation(n).
+     */
+    void write(String operation, int n, Automaton M) {
+        if (directory == null) {
+            return;
+        }
+        File file = file(operation, n);
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            return;
+        }
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+                out.writeInt(MAGIC);
+                long[] checksums = checksums();
+                out.writeInt(checksums.length);
+                for (long checksum : checksums) {
+                    out.writeLong(checksum);
+                }
+                M.writeBinary(out);
+            }
+            try {
+                Files.move(temporary, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            try {
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
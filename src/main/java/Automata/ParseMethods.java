@@ -19,13 +19,11 @@
 package Automata;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import Main.Predicate;
 import Main.UtilityMethods;
 
 public class ParseMethods {
@@ -114,20 +112,17 @@ public class ParseMethods {
 					ns = "msd_" + m.group(10);
 				}
 
-				HashMap<String,NumberSystem> H = Predicate.get_number_system_Hash();
-				if(!H.containsKey(ns)) {
-					try {
-						H.put(ns, new NumberSystem(ns));
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						throw new Exception(
-							e.getMessage() + UtilityMethods.newLine() +
-							"\tNumber system " + ns + " does not exist.");
-					}
+				NumberSystem numberSystem;
+				try {
+					numberSystem = NumberSystem.forName(ns);
+				} catch (Exception e) {
+					throw new Exception(
+						e.getMessage() + UtilityMethods.newLine() +
+						"\tNumber system " + ns + " does not exist.");
 				}
 
-				A.add(H.get(ns).getAlphabet());
-				bases.add(H.get(ns));
+				A.add(numberSystem.getAlphabet());
+				bases.add(numberSystem);
 			}
 
 			index = m.end();
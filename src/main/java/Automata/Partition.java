@@ -1,20 +1,34 @@
 package Automata;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * A refinable partition of 0, ..., n-1 for the Valmari minimization algorithm.
+ * The work arrays M and W belong to the partition, and init only reallocates them when they are too small,
+ * so one Partition can be reused for many automata (but by one thread at a time).
+ */
 public class Partition {
-	static int[] M,W;
-	static int w = 0;
+	int[] M,W;
+	int w = 0;
 	
 	int z;
-	Integer[] E;
+	int[] E;
 	int []L,S,F,P;
 
 	void init( int n ){
 	    z = n == 0? 0:1;  
-	    E = new Integer[n];
-	    L = new int[n]; S = new int[n];
-	    F = new int[n]; P = new int[n];
+	    if( E == null || E.length < n ){
+	    	E = new int[n];
+	    	L = new int[n]; S = new int[n];
+	    	F = new int[n]; P = new int[n];
+	    }
+	    if( M == null || M.length < n+1 ){
+	    	M = new int[n+1]; W = new int[n+1];
+	    }
+	    else{
+	    	Arrays.fill(M, 0, n+1, 0);
+	    }
+	    w = 0;
 	    for( int i = 0; i < n; ++i ){
 	      E[i] = L[i] = i; S[i] = 0; 
 	      F[i] = P[i] = 0;
@@ -22,6 +36,13 @@ public class Partition {
 	    if( z != 0 ){ F[0] = 0; P[0] = n; }
 	}
 
+	/**
+	 * @return the number of elements the arrays of this partition can hold without being reallocated.
+	 */
+	int capacity(){
+		return E == null ? 0 : E.length;
+	}
+
 	void mark( int e ){
 		int s = S[e];
 		int i = L[e];
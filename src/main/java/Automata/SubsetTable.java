@@ -0,0 +1,137 @@
+package Automata;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.Arrays;
+
+/**
+ * The subsets of states found by the subset construction, numbered 0, 1, 2, ... in the order they were added.
+ * <br>
+ * Each subset is stored as a sorted run of distinct ints in one growable array, the arena: subset i is
+ * arena[offsets[i]], ..., arena[offsets[i+1]-1]. Its 64-bit hash is computed once, when it is added, and kept in hashes.
+ * Lookups go through an open-addressing table, slots, that holds subset numbers plus one (0 marks an empty slot),
+ * so finding a subset compares cached hashes first and only compares the elements on a hash match.
+ * <br>
+ * This takes a few bytes per element, where a hash set per subset costs object headers, slack and a rehash by
+ * iteration on every lookup.
+ * <br>
+ * Any int arrays can be stored this way, as long as equal keys are given as equal arrays: the n-ary product of
+ * automata (Automaton.productOf) uses it for tuples of states.
+ */
+public class SubsetTable {
+    private int[] arena = new int[1 << 10];
+    private int[] offsets = new int[(1 << 6) + 1];
+    private long[] hashes = new long[1 << 6];
+    private int[] slots = new int[1 << 7];
+    private int size = 0;
+
+    /**
+     * @return the number of subsets in this table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of subset i, in increasing order.
+     */
+    public int[] get(int i) {
+        return Arrays.copyOfRange(arena, offsets[i], offsets[i + 1]);
+    }
+
+    /**
+     * @return whether some element of subset i satisfies O.getInt(element) != 0.
+     */
+    boolean containsNonZero(int i, IntList O) {
+        for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+            if (O.getInt(arena[k]) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks up a subset, and adds it if it is not in the table yet.
+     * @param subset - sorted, with no repeated elements (or a tuple of states, see above)
+     * @return the number of the subset. It is the old size() exactly when the subset was just added.
+     */
+    public int getOrAdd(int[] subset) {
+        long hash = hash(subset);
+        int mask = slots.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (slots[slot] != 0) {
+            int i = slots[slot] - 1;
+            if (hashes[i] == hash && equals(i, subset)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, 2 * size);
+            offsets = Arrays.copyOf(offsets, 2 * size + 1);
+        }
+        int start = offsets[size];
+        if (start + subset.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(2 * arena.length, start + subset.length));
+        }
+        System.arraycopy(subset, 0, arena, start, subset.length);
+        offsets[size + 1] = start + subset.length;
+        hashes[size] = hash;
+        slots[slot] = ++size;
+        // keep the table at most half full
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Sorts the given states and drops repeated ones, which is the form getOrAdd expects.
+     */
+    static int[] canonical(IntArrayList states) {
+        int[] subset = states.toIntArray();
+        Arrays.sort(subset);
+        int n = 0;
+        for (int k = 0; k < subset.length; k++) {
+            if (n == 0 || subset[n - 1] != subset[k]) {
+                subset[n++] = subset[k];
+            }
+        }
+        return n == subset.length ? subset : Arrays.copyOf(subset, n);
+    }
+
+    private boolean equals(int i, int[] subset) {
+        int start = offsets[i];
+        if (offsets[i + 1] - start != subset.length) return false;
+        for (int k = 0; k < subset.length; k++) {
+            if (arena[start + k] != subset[k]) return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = (int) (hashes[i] ^ (hashes[i] >>> 32)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static long hash(int[] subset) {
+        long h = subset.length;
+        for (int x : subset) {
+            h = (h + x) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        // final mix, from MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
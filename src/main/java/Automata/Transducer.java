@@ -287,6 +287,7 @@ public class Transducer extends Automaton {
     public Automaton transduceMsdDeterministic(Automaton M, boolean print, String prefix, StringBuilder log) throws Exception {
 
         try {
+            M.ensureTransitionMap();
             long timeBefore = System.currentTimeMillis();
             if(print){
                 String msg = prefix + "transducing: " + M.Q + " state automaton - " + Q + " state transducer";
@@ -570,6 +571,8 @@ public class Transducer extends Automaton {
             N.alphabetSize = M.alphabetSize;
 
             N.minimizeSelfWithOutput(print, prefix+" ", log);
+            // transducers work with the transition function d, so we hand N back in that form.
+            N.ensureTransitionMap();
 
             long timeAfter = System.currentTimeMillis();
             if(print){
@@ -629,6 +632,7 @@ public class Transducer extends Automaton {
 
 
         // verify that the automaton is indeed nondeterministic, i.e. it has undefined transitions. If it is not, transduce normally.
+        M.ensureTransitionMap();
         boolean totalized = true;
         for(int q = 0 ; q < M.Q; q++){
             for(int x = 0; x < M.alphabetSize; x++){
@@ -699,6 +703,7 @@ public class Transducer extends Automaton {
 
         if (toLsd) {
             N.reverseWithOutput(true, print, prefix+" ", log);
+            N.ensureTransitionMap();
         }
 
         return N;
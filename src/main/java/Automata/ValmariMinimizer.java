@@ -0,0 +1,393 @@
+package Automata;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Valmari-Lehtinen DFA minimization algorithm (Antti Valmari, Fast brief practical DFA minimization, 2012).
+ * <br>
+ * All the state of the algorithm, including the work arrays, lives in the minimizer object, so different automata can be
+ * minimized at the same time by different minimizers. A minimizer is not thread-safe itself: use forCurrentThread()
+ * to get the one belonging to the calling thread. The work arrays are kept between calls and only reallocated when
+ * they are too small, unless they grew beyond MAX_RETAINED_CAPACITY, in which case they are dropped after the call
+ * instead of pinning that much memory to the thread.
+ */
+public class ValmariMinimizer {
+    private static final ThreadLocal<ValmariMinimizer> MINIMIZERS = ThreadLocal.withInitial(ValmariMinimizer::new);
+
+    /**
+     * Work arrays for at most this many transitions are kept for the next call.
+     */
+    static final int MAX_RETAINED_CAPACITY = 1 << 22;
+
+    // blocks (consist of states)
+    private Partition B = new Partition();
+    // cords (consist of transitions)
+    private Partition C = new Partition();
+
+    // number of states
+    private int num_states;
+    // number of transitions
+    private int num_transitions;
+    // number of final states
+    private int num_finalstates;
+
+    // tails, labels and heads of transitions
+    private int[] T, L, H;
+
+    /* Adjacent transitions */
+    private int[] _A, _F;
+
+    // bucket boundaries for the counting sort of transitions by label
+    private int[] labelOffsets;
+
+    /* Removal of irrelevant parts */
+    private int rr = 0;   // number of reached states
+
+    /**
+     * @return the minimizer of the calling thread.
+     */
+    static ValmariMinimizer forCurrentThread() {
+        return MINIMIZERS.get();
+    }
+
+    /**
+     * Minimizes the deterministic automaton given by newMemD, with initial state 0, and the outputs of a.
+     * Sets Q, q0, O and the transition function (d or transitionTable) of a to the result.
+     * @param a - the automaton being minimized. Only its alphabetSize and O are read.
+     * @param newMemD - memory-efficient transition function, as output by the subset construction
+     */
+    void minimize(Automaton a, List<Int2IntMap> newMemD) {
+        try {
+            run(a, newMemD);
+        } finally {
+            if (Math.max(B.capacity(), C.capacity()) > MAX_RETAINED_CAPACITY) {
+                B = new Partition();
+                C = new Partition();
+                T = L = H = _A = _F = labelOffsets = null;
+            }
+        }
+    }
+
+    /**
+     * Minimizes the deterministic automaton with output a (a DFAO, or Moore machine): two states are merged exactly when
+     * every word leads them to states with the same output. Missing transitions are treated as going to a dead state with
+     * output 0, so the result is total. The initial partition groups the states by output value, and is then refined
+     * once, however many output values there are.
+     * Sets Q, q0, O and the transition function (d or transitionTable) of a to the result.
+     * @param a - a deterministic automaton whose transitions are stored in d or transitionTable, for which
+     *          canMinimizeWithOutput holds
+     */
+    void minimizeWithOutput(Automaton a) {
+        try {
+            runWithOutput(a);
+        } finally {
+            if (Math.max(B.capacity(), C.capacity()) > MAX_RETAINED_CAPACITY) {
+                B = new Partition();
+                C = new Partition();
+                T = L = H = _A = _F = labelOffsets = null;
+            }
+        }
+    }
+
+    private void run(Automaton a, List<Int2IntMap> newMemD) {
+        num_states = a.Q;
+        num_transitions = 0;
+
+        // Pre-size the arrays. This is much more efficient than creating new ArrayLists and then copying from them.
+        for(int q = 0; q != newMemD.size();++q){
+            num_transitions += newMemD.get(q).size();
+        }
+        allocate();
+        int[] T = this.T, L = this.L, H = this.H;
+
+        int arrIndex = 0;
+        for(int q = 0; q != newMemD.size();++q){
+            for(Int2IntMap.Entry entry : Int2IntMaps.fastIterable(newMemD.get(q))) {
+                H[arrIndex] = entry.getIntValue();
+                T[arrIndex] = q;
+                L[arrIndex] = entry.getIntKey();
+                arrIndex++;
+            }
+        }
+
+        B.init( num_states );
+
+          //reach( q0 ); rem_unreachable( T, H );
+        for( int q = 0; q < num_states; ++q ){
+            if(a.O.getInt(q) != 0){
+                reach( q );
+            }
+        }
+        num_finalstates = rr; rem_unreachable( H, T, L);
+
+        /* Make initial partition */
+        B.M[0] = num_finalstates;
+        if( num_finalstates != 0 ){ B.W[B.w++] = 0; B.split(); }
+
+        refine();
+
+        /* Turn the result back to Walnut format for Automata */
+        a.Q = B.z;
+
+        a.q0 = B.S[a.q0];
+        a.O = new IntArrayList(a.Q);
+        for( int q = 0; q < B.z; ++q ){
+            if( B.F[q] < num_finalstates ){
+                a.O.add(1);
+            }
+            else {
+                a.O.add(0);
+            }
+        }
+        writeTransitions(a);
+    }
+
+    /**
+     * minimizeWithOutput has one transition for every state of a, the dead state included, and every input. This is
+     * false when there are too many of them to be held in an array. Then a is to be minimized through its
+     * transition function instead, see Automaton.minimizeWithOutputByUncombining.
+     */
+    static boolean canMinimizeWithOutput(Automaton a) {
+        return (long) (a.Q + 1) * a.alphabetSize <= Integer.MAX_VALUE - 8;
+    }
+
+    private void runWithOutput(Automaton a) {
+        // state a.Q is the dead state, with output 0
+        int dead = a.Q;
+        IntList O = new IntArrayList(a.O);
+        O.add(0);
+        int alphabetSize = a.alphabetSize;
+        num_states = a.Q + 1;
+        num_transitions = Math.toIntExact((long) num_states * alphabetSize);
+        allocate();
+        int[] T = this.T, L = this.L, H = this.H;
+
+        int t = 0;
+        for(int q = 0; q < num_states; ++q){
+            for(int x = 0; x < alphabetSize; ++x){
+                int p = dead;
+                if(q != dead && a.transitionTable != null){
+                    if(a.transitionTable[q * alphabetSize + x] != -1) p = a.transitionTable[q * alphabetSize + x];
+                }
+                else if(q != dead){
+                    IntList dest = a.d.get(q).get(x);
+                    if(dest != null && !dest.isEmpty()) p = dest.getInt(0);
+                }
+                T[t] = q; L[t] = x; H[t] = p; ++t;
+            }
+        }
+
+        /* Remove the states that cannot be reached from q0 */
+        B.init( num_states );
+        reach( a.q0 ); rem_unreachable( T, H, L );
+        int reachable = B.P[0];
+
+        /* Make initial partition: one block per output value, in increasing order */
+        IntArrayList values = new IntArrayList();
+        for(int i = 0; i < reachable; ++i){
+            values.add(O.getInt(B.E[i]));
+        }
+        int[] distinct = SubsetTable.canonical(values);
+        int[] order = new int[reachable];
+        for(int i = 0; i < reachable; ++i){
+            order[i] = B.E[i];
+        }
+        B.z = distinct.length;
+        for(int z = 0; z < B.z; ++z){
+            B.F[z] = B.P[z] = 0;
+        }
+        for(int q : order){
+            ++B.P[Arrays.binarySearch(distinct, O.getInt(q))];
+        }
+        for(int z = 1; z < B.z; ++z){
+            B.P[z] += B.P[z - 1];
+        }
+        for(int z = 0; z < B.z; ++z){
+            B.F[z] = z == 0 ? 0 : B.P[z - 1];
+        }
+        int[] next = Arrays.copyOf(B.F, B.z);
+        for(int q : order){
+            int z = Arrays.binarySearch(distinct, O.getInt(q));
+            int i = next[z]++;
+            B.E[i] = q; B.L[q] = i; B.S[q] = z;
+        }
+
+        refine();
+
+        /* Turn the result back to Walnut format for Automata */
+        a.Q = B.z;
+        a.q0 = B.S[a.q0];
+        a.O = new IntArrayList(a.Q);
+        for( int q = 0; q < B.z; ++q ){
+            a.O.add(O.getInt(B.E[B.F[q]]));
+        }
+        writeTransitions(a);
+    }
+
+    /**
+     * Makes sure the work arrays can hold num_states states and num_transitions transitions.
+     */
+    private void allocate() {
+        if (T == null || T.length < num_transitions) {
+            T = new int[num_transitions];
+            L = new int[num_transitions];
+            H = new int[num_transitions];
+            _A = new int[num_transitions];
+        }
+        if (_F == null || _F.length < num_states + 1) {
+            _F = new int[num_states + 1];
+        }
+    }
+
+    /**
+     * Refines the initial partition of states B until it is the coarsest one compatible with the transitions.
+     */
+    private void refine() {
+        /* Make transition partition */
+        C.init( num_transitions );
+        if( num_transitions != 0 ){
+            /* Counting sort of the transitions by label. It is stable, and labels are already small: 0, ..., alphabetSize-1. */
+            int numberOfLabels = 0;
+            for( int t = 0; t < num_transitions; ++t ){
+                numberOfLabels = Math.max(numberOfLabels, L[t] + 1);
+            }
+            if (labelOffsets == null || labelOffsets.length < numberOfLabels + 1) {
+                labelOffsets = new int[numberOfLabels + 1];
+            }
+            else {
+                Arrays.fill(labelOffsets, 0, numberOfLabels + 1, 0);
+            }
+            for( int t = 0; t < num_transitions; ++t ){
+                ++labelOffsets[L[t] + 1];
+            }
+            for( int l = 0; l < numberOfLabels; ++l ){
+                labelOffsets[l + 1] += labelOffsets[l];
+            }
+            for( int t = 0; t < num_transitions; ++t ){
+                C.E[labelOffsets[L[t]]++] = t;
+            }
+            C.z = C.M[0] = 0; int l = L[C.E[0]];
+            for( int i = 0; i < num_transitions; ++i ){
+                int t = C.E[i];
+                if( L[t] != l ){
+                    l = L[t]; C.P[C.z++] = i;
+                    C.F[C.z] = i; C.M[C.z] = 0;
+                }
+                C.S[t] = C.z; C.L[t] = i;
+            }
+            C.P[C.z++] = num_transitions;
+        }
+
+        /* Split blocks and cords */
+        make_adjacent( H );
+        int b = 1, c = 0;
+        while( c < C.z ){
+            for(int i = C.F[c]; i < C.P[c]; ++i ){
+                B.mark( T[C.E[i]] );
+            }
+            B.split(); ++c;
+            while( b < B.z ){
+                for(int i = B.F[b]; i < B.P[b]; ++i ){
+                    for(int j = _F[B.E[i]];j < _F[B.E[i]+1]; ++j){
+                        C.mark( _A[j] );
+                    }
+                }
+                C.split(); ++b;
+            }
+        }
+    }
+
+    /**
+     * Sets the transition function of a to the transitions between the blocks of B, taking the transitions of the first
+     * state of every block.
+     */
+    private void writeTransitions(Automaton a) {
+        int kept_transitions = 0;
+        for( int t = 0; t < num_transitions; ++t ){
+            if( B.L[T[t]] == B.F[B.S[T[t]]] ){
+                kept_transitions++;
+            }
+        }
+
+        int alphabetSize = a.alphabetSize;
+        if(a.useTransitionTable(kept_transitions)){
+            a.d = null;
+            a.transitionTable = new int[a.Q * alphabetSize];
+            Arrays.fill(a.transitionTable, -1);
+            for( int t = 0; t < num_transitions; ++t ){
+                if( B.L[T[t]] == B.F[B.S[T[t]]] ){
+                    a.transitionTable[B.S[T[t]] * alphabetSize + L[t]] = B.S[H[t]];
+                }
+            }
+        }
+        else {
+            a.transitionTable = null;
+            a.d = new ArrayList<>(a.Q);
+            for( int q = 0; q < a.Q;++q){
+                a.d.add(new Int2ObjectRBTreeMap<>());
+            }
+            for( int t = 0; t < num_transitions; ++t ){
+                if( B.L[T[t]] == B.F[B.S[T[t]]] ){
+                    int q = B.S[T[t]];
+                    int l = L[t];
+                    int p = B.S[H[t]];
+                    if(!a.d.get(q).containsKey(l)){
+                        a.d.get(q).put(l, new IntArrayList());
+                    }
+                    a.d.get(q).get(l).add(p);
+                }
+            }
+        }
+    }
+
+    private void make_adjacent(int K[]) {
+        int q, t;
+        for( q = 0; q <= num_states; ++q ) {
+            _F[q] = 0;
+        }
+
+        for( t = 0; t < num_transitions; ++t ) {
+            ++_F[K[t]];
+        }
+
+        for( q = 0; q < num_states; ++q ) {
+            _F[q+1] += _F[q];
+        }
+
+        for( t = num_transitions; t-- != 0; ) {
+            _A[--_F[K[t]]] = t;
+        }
+    }
+
+    private void reach( int q ) {
+      int i = B.L[q];
+      if( i >= rr ){
+        B.E[i] = B.E[rr]; B.L[B.E[i]] = i;
+        B.E[rr] = q; B.L[q] = rr++; }
+    }
+
+    private void rem_unreachable( int T[], int H[], int L[] ){
+        make_adjacent( T ); int i, j;
+        for( i = 0; i < rr; ++i ){
+            for( j = _F[B.E[i]]; j < _F[B.E[i] + 1]; ++j ){
+                reach( H[_A[j]] );
+            }
+        }
+        j = 0;
+        for( int t = 0; t < num_transitions; ++t ){
+            if( B.L[T[t]] < rr ){
+                H[j] = H[t]; L[j] = L[t];
+                T[j] = T[t]; ++j;
+            }
+        }
+        num_transitions = j; B.P[0] = rr; rr = 0;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Stack;
 
 import Automata.Automaton;
+import Token.LogicalOperator;
 import Token.Token;
 
 
@@ -105,12 +106,34 @@ public class Computer {
 		long timeBeginning = System.currentTimeMillis();
 		String step,preStep;
 
-		for(Token t:postOrder) {
+		for(int i = 0; i < postOrder.size(); i++) {
+			Token t = postOrder.get(i);
 			try{
 
 				long timeBefore = System.currentTimeMillis();
 				String operands = "";
-				t.act(expression_Stack, printDetails, prefix, log_details);
+				/**
+				 * A logical operator followed by a chain of quantifiers is computed in one go (see
+				 * LogicalOperator.actChain). Every token of the chain still gets its step, but only the last one
+				 * has an automaton to report on.
+				 */
+				List<String> chain = LogicalOperator.actChain(postOrder, i, expression_Stack, printDetails, prefix, log_details);
+				if(!chain.isEmpty()) {
+					for(int k = 0; k < chain.size() - 1; k++) {
+						step = prefix + chain.get(k) + ": computed with the next step";
+						log.append(step + UtilityMethods.newLine());
+						log_details.append(step + UtilityMethods.newLine());
+						if(printSteps || printDetails) {
+							System.out.println(step);
+						}
+						prefix += " ";
+					}
+					i += chain.size() - 1;
+					t = postOrder.get(i);
+				}
+				else {
+					t.act(expression_Stack, printDetails, prefix, log_details);
+				}
 				long timeAfter = System.currentTimeMillis();
 				if(t.isOperator() && expression_Stack.peek().is(Type.automaton)) {
 					step = prefix + expression_Stack.peek() + ":" +
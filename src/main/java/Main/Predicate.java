@@ -22,7 +22,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Stack;
 import java.util.regex.Matcher;
@@ -65,10 +64,6 @@ public class Predicate {
 	Matcher MATCHER_FOR_RIGHT_PARENTHESIS;
 	Matcher MATCHER_FOR_WHITESPACE;
 
-	static HashMap<String,NumberSystem> number_system_Hash = new HashMap<>();
-	public static HashMap<String,NumberSystem> get_number_system_Hash(){
-		return number_system_Hash;
-	}
 
 	static String REGEXP_FOR_LOGICAL_OPERATORS = "\\G\\s*(?<!\\.)(`|\\^|\\&|\\~|\\||=>|<=>|E|A|I|\\u02DC|\\u0303)";
 	static String REGEXP_FOR_LIST_OF_QUANTIFIED_VARIABLES = "\\G\\s*((\\s*([a-zA-Z&&[^AEI]]\\w*)\\s*)(\\s*,\\s*([a-zA-Z&&[^AEI]]\\w*)\\s*)*)";
@@ -171,18 +166,13 @@ public class Predicate {
 			} else if(MATCHER_FOR_RELATIONAL_OPERATORS.find(index)) {
 				lastTokenWasOperator = true;
 				Matcher matcher = MATCHER_FOR_RELATIONAL_OPERATORS;
-				if(!number_system_Hash.containsKey(current_number_system)) {
-					number_system_Hash.put(current_number_system, new NumberSystem(current_number_system));
-				}
-				op = new RelationalOperator(real_starting_position + matcher.start(1), matcher.group(1), number_system_Hash.get(current_number_system));
+				op = new RelationalOperator(real_starting_position + matcher.start(1), matcher.group(1), NumberSystem.forName(current_number_system));
 				op.put(postOrder, operator_Stack);
 				index = matcher.end();
 			} else if(MATCHER_FOR_ARITHMETIC_OPERATORS.find(index)) {
 				lastTokenWasOperator = true;
 				Matcher matcher = MATCHER_FOR_ARITHMETIC_OPERATORS;
-				if(!number_system_Hash.containsKey(current_number_system))
-					number_system_Hash.put(current_number_system, new NumberSystem(current_number_system));
-				op = new ArithmeticOperator(real_starting_position + matcher.start(1), matcher.group(1), number_system_Hash.get(current_number_system));
+				op = new ArithmeticOperator(real_starting_position + matcher.start(1), matcher.group(1), NumberSystem.forName(current_number_system));
 				op.put(postOrder,operator_Stack);
 				index = matcher.end();
 			} else if(MATCHER_FOR_WORD.find(index)) {
@@ -215,9 +205,7 @@ public class Predicate {
 				if(!lastTokenWasOperator)throw new Exception(
 					"An operator is missing: char at " + (real_starting_position+index));
 				lastTokenWasOperator = false;
-				if(!number_system_Hash.containsKey(current_number_system))
-					number_system_Hash.put(current_number_system, new NumberSystem(current_number_system));
-				t = new NumberLiteral(real_starting_position + MATCHER_FOR_NUMBER_LITERAL.start(1),UtilityMethods.parseInt(MATCHER_FOR_NUMBER_LITERAL.group(1)),number_system_Hash.get(current_number_system));
+				t = new NumberLiteral(real_starting_position + MATCHER_FOR_NUMBER_LITERAL.start(1),UtilityMethods.parseInt(MATCHER_FOR_NUMBER_LITERAL.group(1)),NumberSystem.forName(current_number_system));
 				t.put(postOrder);
 				index = MATCHER_FOR_NUMBER_LITERAL.end();
 			} else if(MATCHER_FOR_ALPHABET_LETTER.find(index)) {
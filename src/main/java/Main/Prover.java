@@ -624,10 +624,8 @@ public class Prover {
 		if(m.group(R_LIST_OF_ALPHABETS) == null) {
 			String base = "msd_2";
 			try{
-				if(!Predicate.number_system_Hash.containsKey(base))
-					Predicate.number_system_Hash.put(base, new NumberSystem(base));
-				ns = Predicate.number_system_Hash.get(base);
-				numSys.add(Predicate.number_system_Hash.get(base));
+				ns = NumberSystem.forName(base);
+				numSys.add(ns);
 			}catch(Exception e){
 				throw new Exception("number system " + base + " does not exist: char at " + m.start(R_NUMBER_SYSTEM)+UtilityMethods.newLine()+"\t:"+e.getMessage());
 			}
@@ -642,10 +640,8 @@ public class Prover {
 				if(m1.group(9) != null)base =  m1.group(9)+"_2";
 				if(m1.group(10) != null)base = "msd_"+m1.group(10);
 				try{
-					if(!Predicate.number_system_Hash.containsKey(base))
-						Predicate.number_system_Hash.put(base, new NumberSystem(base));
-					ns = Predicate.number_system_Hash.get(base);
-					numSys.add(Predicate.number_system_Hash.get(base));
+					ns = NumberSystem.forName(base);
+					numSys.add(ns);
 				}catch(Exception e){
 					throw new Exception("number system " + base + " does not exist: char at " + m.start(R_NUMBER_SYSTEM)+UtilityMethods.newLine()+"\t:"+e.getMessage());
 				}
@@ -1112,6 +1108,9 @@ public class Prover {
 			m.group(GROUP_OST_PERIOD));
 		ostr.createRepresentationAutomaton();
 		ostr.createAdderAutomaton();
+		// the number systems of this name, if they were built, are built again from the new files
+		NumberSystem.forget("msd_" + m.group(GROUP_OST_NAME));
+		NumberSystem.forget("lsd_" + m.group(GROUP_OST_NAME));
 	}
 
 	public static TestCase transduceCommand(String s) throws Exception {
@@ -1348,10 +1347,8 @@ public class Prover {
 					if(m1.group(9) != null)base =  m1.group(9)+"_2";
 					if(m1.group(10) != null)base = "msd_"+m1.group(10);
 					try{
-						if(!Predicate.number_system_Hash.containsKey(base))
-							Predicate.number_system_Hash.put(base, new NumberSystem(base));
-						ns = Predicate.number_system_Hash.get(base);
-						numSys.add(Predicate.number_system_Hash.get(base));
+						ns = NumberSystem.forName(base);
+						numSys.add(ns);
 					}catch(Exception e){
 						throw new Exception("number system " + base + " does not exist: char at " + m.start(R_NUMBER_SYSTEM)+UtilityMethods.newLine()+"\t:"+e.getMessage());
 					}
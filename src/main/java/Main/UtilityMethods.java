@@ -36,6 +36,7 @@ public class UtilityMethods {
 	static String ADDRESS_FOR_TRANSDUCER_LIBRARY = "Transducer Library/";
 	static String ADDRESS_FOR_RESULT = "Result/";
 	static String ADDRESS_FOR_CUSTOM_BASES = "Custom Bases/";
+	static String ADDRESS_FOR_NUMBER_SYSTEM_CACHE = "Number System Cache/";
 	static String ADDRESS_FOR_TEST_LIBRARY = "Test Library/";
 	static String ADDRESS_FOR_HELP_DOCUMENTATION = "Help Documentation/";
 	static String ADDRESS_FOR_HELP_COMMANDS = "Help Documentation/Commands/";
@@ -70,6 +71,10 @@ public class UtilityMethods {
 		return dir + ADDRESS_FOR_CUSTOM_BASES;
 	}
 
+	public static String get_address_for_number_system_cache() {
+		return dir + ADDRESS_FOR_NUMBER_SYSTEM_CACHE;
+	}
+
 	public static String get_address_for_words_library() {
 		return dir + ADDRESS_FOR_WORDS_LIBRARY;
 	}
@@ -18,7 +18,9 @@
 
 package Token;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Stack;
+import java.util.TreeMap;
 
 import Main.Expression;
 import Automata.Automaton;
@@ -71,8 +73,7 @@ public class ArithmeticOperator extends Operator{
 			}
 			if(b.is(Type.arithmetic)){
 				// Eb, b + c = 0 & M(b,...)
-				M = M.and(b.M,print,prefix+" ",log);
-				M.quantify(b.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(b.M,b.identifier,print,prefix+" ",log);
 			}
 			S.push(new Expression("("+op+b+")",M,c));
 			String postStep = prefix + "computed " + op+b;
@@ -146,10 +147,10 @@ public class ArithmeticOperator extends Operator{
 				reverse = true;
 			}
 
-			M = new Automaton(true);
+			// the statement for every distinct output i, all combined in one product
+			Map<Integer,Automaton> constraints = new TreeMap<>();
 			for(int o : word.W.O) {
-				Automaton N = word.W.clone();
-				N.compare(o, "=",print,prefix+" ",log);
+				if(constraints.containsKey(o)) continue;
 				Automaton C;
 				if(o == 0 && op.equals("*")){
 					C = number_system.get(0);
@@ -159,14 +160,12 @@ public class ArithmeticOperator extends Operator{
 				} else {
 					C = number_system.arithmetic(o, arithmetic.identifier,c, op);
 				}
-				N = N.imply(C, print, prefix+" ",log);
-				M = M.and(N,print,prefix+" ",log);
+				constraints.put(o, C);
 			}
-			M = M.and(word.M,print,prefix+" ",log);
-			M.quantify(new HashSet<>(word.list_of_identifiers_to_quantify),print,prefix+" ",log);
+			M = word.W.implyPerOutput(constraints,print,prefix+" ",log);
+			M = M.andThenQuantify(word.M,new HashSet<>(word.list_of_identifiers_to_quantify),print,prefix+" ",log);
 			if(arithmetic.is(Type.arithmetic)){
-				M = M.and(arithmetic.M,print,prefix+" ",log);
-				M.quantify(arithmetic.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(arithmetic.M,arithmetic.identifier,print,prefix+" ",log);
 			}
 		} else {
 			if(a.is(Type.numberLiteral)){
@@ -189,12 +188,10 @@ public class ArithmeticOperator extends Operator{
 			}
 
 			if(a.is(Type.arithmetic)){
-				M = M.and(a.M,print,prefix+" ",log);
-				M.quantify(a.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(a.M,a.identifier,print,prefix+" ",log);
 			}
 			if(b.is(Type.arithmetic)){
-				M = M.and(b.M,print,prefix+" ",log);
-				M.quantify(b.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(b.M,b.identifier,print,prefix+" ",log);
 			}
 		}
 		S.push(new Expression("("+a+op+b+")",M,c));
@@ -18,8 +18,11 @@
 
 package Token;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 import Main.Expression;
@@ -39,7 +42,7 @@ public class Function extends Token {
 		setArity(number_of_arguments);
 		setPositionInPredicate(position);
 		this.A = A;
-		this.ns = new NumberSystem(number_system);
+		this.ns = NumberSystem.forName(number_system);
 		if(A.getArity() != getArity())throw new Exception("function " + name + " requires " + A.getArity() +" arguments: char at " + getPositionInPredicate());
 	}
 	public String toString(){
@@ -61,6 +64,10 @@ public class Function extends Token {
 		Automaton M = new Automaton(true);
 		List<String> identifiers = new ArrayList<>();
 		List<String> quantify = new ArrayList<>();
+		// pairs of inputs that are the same variable, and only have to agree
+		List<List<String>> diagonals = new ArrayList<>();
+		// the inputs that are number literals, which we fix to their value once the inputs are bound
+		Map<String,Expression> literals = new LinkedHashMap<>();
 		for(int i = 0 ; i < getArity();i++){
 			args.add(temp.pop());
 			Expression currentArg = args.get(i);
@@ -81,11 +88,15 @@ public class Function extends Token {
 				}
 				else{
 					String new_identifier = currentArg.identifier+getUniqueString();
-					Automaton eq = this.ns.equality.clone();
-					eq.bind(currentArg.identifier,new_identifier);
-					M = M.and(eq,print,prefix+" ",log);
-					quantify.add(new_identifier);
+					diagonals.add(Arrays.asList(currentArg.identifier,new_identifier));
 					identifiers.add(new_identifier);
+					// the diagonal does not check that the input is a valid representation, as the equality automaton did
+					Automaton valid = this.ns.getAllRepresentations();
+					if(valid != null && this.ns.should_we_use_allRepresentations()){
+						valid = valid.clone();
+						valid.bind(currentArg.identifier);
+						M = M.and(valid,print,prefix+" ",log);
+					}
 				}
 				break;
 			case arithmetic:
@@ -94,12 +105,9 @@ public class Function extends Token {
 				quantify.add(currentArg.identifier);
 				break;
 			case numberLiteral:
-				Automaton constant = currentArg.base.get(currentArg.constant);
 				String id = getUniqueString();
-				constant.bind(id);
 				identifiers.add(id);
-				quantify.add(id);
-				M = M.and(constant,print,prefix+" ",log);
+				literals.put(id,currentArg);
 				break;
 			case automaton:
 				if(currentArg.M.getArity() != 1){
@@ -119,8 +127,22 @@ public class Function extends Token {
 		stringValue += ")";
 		
 		A.bind(identifiers);
-		A = A.and(M,print,prefix+" ",log);
-		A.quantify(new HashSet<>(quantify),print,prefix + " ",log);
+		for(List<String> diagonal:diagonals){
+			A.restrictDiagonal(diagonal);
+		}
+		for(Map.Entry<String,Expression> literal:literals.entrySet()){
+			String id = literal.getKey();
+			NumberSystem base = literal.getValue().base;
+			int constant = literal.getValue().constant;
+			if(!A.specialize(id,base,constant,print,prefix+" ",log)){
+				// E id, id = constant & ...
+				Automaton C = base.get(constant);
+				C.bind(id);
+				M = M.and(C,print,prefix+" ",log);
+				quantify.add(id);
+			}
+		}
+		A = A.andThenQuantify(M,new HashSet<>(quantify),print,prefix+" ",log);
 		
 		stringValue += ")";
 		S.push(new Expression(stringValue,A));
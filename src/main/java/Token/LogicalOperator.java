@@ -20,6 +20,7 @@ package Token;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
 
 import Main.Expression;
@@ -84,6 +85,129 @@ public class LogicalOperator extends Operator{
 		throw new Exception("operator " + op + " cannot be applied to operands "+a +" and "+b +" of types " + a.getType() +" and " + b.getType() + " respectively");
 			
 	}
+	/**
+	 * Acts as the tokens postOrder.get(i), postOrder.get(i+1), ... when they are a logical operator followed by a
+	 * chain of quantifiers of the same kind, as in E x E y (a & b), without determinizing and minimizing every
+	 * intermediate result:<br>
+	 * - when the quantifiers bind every label of a op b, the sentence is decided by Automaton.decideSentence, which
+	 * stops as soon as its truth value is known,<br>
+	 * - otherwise, when op is & and the quantifiers are E, the cross product is projected as it is built, by
+	 * Automaton.andThenQuantify,<br>
+	 * - when postOrder.get(i) is itself a quantifier, the chain is computed as a single quantifier over all of its
+	 * variables, so the projections stay non-deterministic until the end of the chain.<br>
+	 * We only do this when the variables are distinct labels of the automaton they apply to, so errors are the same.
+	 * The log gets the lines "computing ..." and "computed ..." of every token, as act would write them, with the
+	 * prefix growing by one space from one token to the next.
+	 * @return the string of the expression computed by every token acted on, in order, or an empty list, leaving S
+	 * as it was, when none of this applies.
+	 */
+	public static List<String> actChain(List<Token> postOrder,int i,Stack<Expression> S,boolean print,String prefix,StringBuilder log) throws Exception{
+		List<String> none = new ArrayList<>();
+		if(!(postOrder.get(i) instanceof LogicalOperator))return none;
+		LogicalOperator first = (LogicalOperator)postOrder.get(i);
+		boolean binary = first.op.equals("&") || first.op.equals("|") || first.op.equals("^") ||
+			first.op.equals("=>") || first.op.equals("<=>");
+		int start = binary ? i+1 : i;
+		if(start == postOrder.size() || !(postOrder.get(start) instanceof LogicalOperator))return none;
+		String quantifier = ((LogicalOperator)postOrder.get(start)).op;
+		if(!quantifier.equals("E") && !quantifier.equals("A"))return none;
+		int end = start;
+		int n = 0;
+		while(end < postOrder.size() && postOrder.get(end) instanceof LogicalOperator &&
+			((LogicalOperator)postOrder.get(end)).op.equals(quantifier)){
+			n += postOrder.get(end).getArity()-1;
+			end++;
+		}
+		if(!binary && end - start < 2)return none;
+
+		// the operands, and below them the variables of the quantifiers, the innermost one last
+		int operands = binary ? 2 : 1;
+		if(S.size() < n + operands)return none;
+		List<Automaton> automata = new ArrayList<>();
+		Set<String> labels = new HashSet<>();
+		for(int k = S.size()-operands; k < S.size();k++){
+			Automaton M = S.get(k).M;
+			if(!S.get(k).is(Type.automaton) || M.TRUE_FALSE_AUTOMATON || M.getLabel() == null)return none;
+			automata.add(M);
+			labels.addAll(M.getLabel());
+		}
+		List<String> list_of_identifiers_to_quantify = new ArrayList<>();
+		for(int k = S.size()-operands-n; k < S.size()-operands;k++){
+			if(!S.get(k).is(Type.variable) || !labels.contains(S.get(k).identifier) ||
+				list_of_identifiers_to_quantify.contains(S.get(k).identifier))return none;
+			list_of_identifiers_to_quantify.add(S.get(k).identifier);
+		}
+		Set<String> identifiers = new HashSet<>(list_of_identifiers_to_quantify);
+
+		Automaton M = null;
+		if(binary){
+			M = automata.get(0).decideSentence(quantifier, identifiers, first.op, automata.get(1));
+			if(M == null && !(first.op.equals("&") && quantifier.equals("E")))return none;
+		}
+
+		// the string of every token in the chain, and the lines act would log before and after it
+		List<String> stringValues = new ArrayList<>();
+		List<String> preSteps = new ArrayList<>();
+		List<String> postSteps = new ArrayList<>();
+		String stringValue;
+		if(binary){
+			Expression a = S.get(S.size()-2), b = S.get(S.size()-1);
+			stringValue = "("+a+first.op+b+")";
+			stringValues.add(stringValue);
+			preSteps.add("computing "+a+first.op+b);
+			postSteps.add("computed "+a+first.op+b);
+		}
+		else{
+			stringValue = S.get(S.size()-1).toString();
+		}
+		int k = list_of_identifiers_to_quantify.size();
+		for(int j = start; j < end;j++){
+			int arity = postOrder.get(j).getArity()-1;
+			String variables = "";
+			for(int v = k-arity; v < k;v++){
+				variables += (v == k-arity ? "" : ", ") + list_of_identifiers_to_quantify.get(v) + " ";
+			}
+			k -= arity;
+			stringValue = "("+quantifier + " " + variables + stringValue + ")";
+			stringValues.add(stringValue);
+			preSteps.add("computing quantifier "+quantifier);
+			postSteps.add("computed quantifier "+stringValue);
+		}
+
+		String tokenPrefix = prefix;
+		for(String preStep : preSteps){
+			log.append(tokenPrefix + preStep + UtilityMethods.newLine());
+			if(print){
+				System.out.println(tokenPrefix + preStep);
+			}
+			tokenPrefix += " ";
+		}
+		if(binary && M == null){
+			M = automata.get(0).andThenQuantify(automata.get(1), identifiers, print, prefix+" ", log);
+		}
+		else if(!binary){
+			M = automata.get(0);
+			if(quantifier.equals("E")){
+				M.quantify(identifiers,print,prefix+" ",log);
+			} else {
+				M.forAll(identifiers,print,prefix+" ",log);
+			}
+		}
+		for(int v = 0; v < n + operands;v++){
+			S.pop();
+		}
+		S.push(new Expression(stringValue,M));
+		tokenPrefix = prefix;
+		for(String postStep : postSteps){
+			log.append(tokenPrefix + postStep + UtilityMethods.newLine());
+			if(print){
+				System.out.println(tokenPrefix + postStep);
+			}
+			tokenPrefix += " ";
+		}
+		return stringValues;
+	}
+
 	private void actNegationOrReverse(Stack<Expression> S,boolean print,String prefix,StringBuilder log) throws Exception{
 		Expression a = S.pop();
 		if(a.is(Type.automaton)){
@@ -140,9 +264,7 @@ public class LogicalOperator extends Operator{
 				if(op.equals("E")){
 					M.quantify(new HashSet<>(list_of_identifiers_to_quantify),print,prefix+" ",log);
 				} else if (op.equals("A")){
-					M.not(print,prefix+" ",log);
-					M.quantify(new HashSet<>(list_of_identifiers_to_quantify),print,prefix+" ",log);
-					M.not(print,prefix+" ",log);
+					M.forAll(new HashSet<>(list_of_identifiers_to_quantify),print,prefix+" ",log);
 				} else {
 					M = M.removeLeadingZeroes(list_of_identifiers_to_quantify, print, prefix+" ", log);
 					String infReg = M.infinite();
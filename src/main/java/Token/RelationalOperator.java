@@ -24,7 +24,9 @@ import Main.Type;
 import Main.UtilityMethods;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Stack;
+import java.util.TreeMap;
 
 
 public class RelationalOperator extends Operator{
@@ -71,24 +73,22 @@ public class RelationalOperator extends Operator{
 				reverse = true;
 			}
 
-			Automaton M = new Automaton(true);
+			// the statement for every distinct output i, all combined in one product
+			Map<Integer,Automaton> constraints = new TreeMap<>();
 			for(int o : word.W.O) {
-				Automaton N = word.W.clone();
-				N.compare(o, "=",print,prefix+" ",log);
+				if(constraints.containsKey(o)) continue;
 				Automaton C;
 				if (reverse) {
 					C = number_system.comparison(arithmetic.identifier, o, op);
 				} else {
 					C = number_system.comparison(o, arithmetic.identifier, op);
 				}
-				N = N.imply(C, print, prefix+" ",log);
-				M = M.and(N,print,prefix+" ",log);
+				constraints.put(o, C);
 			}
-			M = M.and(word.M,print,prefix+" ",log);
-			M.quantify(new HashSet<>(word.list_of_identifiers_to_quantify),print,prefix+" ",log);
+			Automaton M = word.W.implyPerOutput(constraints,print,prefix+" ",log);
+			M = M.andThenQuantify(word.M,new HashSet<>(word.list_of_identifiers_to_quantify),print,prefix+" ",log);
 			if(arithmetic.is(Type.arithmetic)){
-				M = M.and(arithmetic.M,print,prefix+" ",log);
-				M.quantify(arithmetic.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(arithmetic.M,arithmetic.identifier,print,prefix+" ",log);
 			}
 			S.push(new Expression(word.toString(), M));
 		}
@@ -96,12 +96,10 @@ public class RelationalOperator extends Operator{
 				&& (b.is(Type.arithmetic) || b.is(Type.variable))){
 			Automaton M = number_system.comparison(a.identifier, b.identifier, op);
 			if(a.is(Type.arithmetic)){
-				M = M.and(a.M,print,prefix+" ",log);
-				M.quantify(a.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(a.M,a.identifier,print,prefix+" ",log);
 			}
 			if(b.is(Type.arithmetic)){
-				M = M.and(b.M,print,prefix+" ",log);
-				M.quantify(b.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(b.M,b.identifier,print,prefix+" ",log);
 			}
 			
 			S.push(new Expression(a+op+b,M));
@@ -109,39 +107,34 @@ public class RelationalOperator extends Operator{
 		else if((a.is(Type.numberLiteral) || a.is(Type.alphabetLetter)) && (b.is(Type.arithmetic) || b.is(Type.variable))){
 			Automaton M = number_system.comparison(a.constant, b.identifier, op);
 			if(b.is(Type.arithmetic)){
-				M = M.and(b.M,print,prefix+" ",log);
-				M.quantify(b.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(b.M,b.identifier,print,prefix+" ",log);
 			}
 			S.push(new Expression(a+op+b,M));
 		}
 		else if((a.is(Type.arithmetic) || a.is(Type.variable)) && (b.is(Type.numberLiteral) || b.is(Type.alphabetLetter))){
 			Automaton M = number_system.comparison(a.identifier, b.constant, op);
 			if(a.is(Type.arithmetic)){
-				M = M.and(a.M,print,prefix+" ",log);
-				M.quantify(a.identifier,print,prefix+" ",log);
+				M = M.andThenQuantify(a.M,a.identifier,print,prefix+" ",log);
 			}	
 			S.push(new Expression(a+op+b,M));
 		}
 		else if(a.is(Type.word) && b.is(Type.word)){
 			Automaton M = a.W.compare(b.W, op,print,prefix+" ",log);
 			M = M.and(a.M,print,prefix+" ",log);
-			M = M.and(b.M,print,prefix+" ",log);
-			M.quantify(new HashSet<>(a.list_of_identifiers_to_quantify),print,prefix+" ",log);
+			M = M.andThenQuantify(b.M,new HashSet<>(a.list_of_identifiers_to_quantify),print,prefix+" ",log);
 			M.quantify(new HashSet<>(b.list_of_identifiers_to_quantify),print,prefix+" ",log);
 			S.push(new Expression(a+op+b,M));
 		}
 		else if(a.is(Type.word) && (b.is(Type.numberLiteral) || b.is(Type.alphabetLetter))){
 			a.W.compare(b.constant, op,print,prefix+" ",log);
 			Automaton M = a.W;
-			M = M.and(a.M,print,prefix+" ",log);
-			M.quantify(new HashSet<>(a.list_of_identifiers_to_quantify),print,prefix+" ",log);
+			M = M.andThenQuantify(a.M,new HashSet<>(a.list_of_identifiers_to_quantify),print,prefix+" ",log);
 			S.push(new Expression(a+op+b,M));
 		}
 		else if((a.is(Type.numberLiteral) || a.is(Type.alphabetLetter)) && b.is(Type.word)){
 			b.W.compare(a.constant, reverseOperator(op),print,prefix+" ",log);
 			Automaton M = b.W;
-			M = M.and(b.M,print,prefix+" ",log);
-			M.quantify(new HashSet<>(b.list_of_identifiers_to_quantify),print,prefix+" ",log);
+			M = M.andThenQuantify(b.M,new HashSet<>(b.list_of_identifiers_to_quantify),print,prefix+" ",log);
 			S.push(new Expression(a+op+b,M));
 		}
 		else{
@@ -18,12 +18,16 @@
 
 package Token;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 import Main.Expression;
 import Main.UtilityMethods;
 import Automata.Automaton;
+import Automata.NumberSystem;
 
 public class Word extends Token{
 	Automaton W;
@@ -53,6 +57,10 @@ public class Word extends Token{
 		}
 		List<String> identifiers = new ArrayList<>();
 		List<String> quantify = new ArrayList<>();
+		// pairs of inputs that are the same variable, and only have to agree
+		List<List<String>> diagonals = new ArrayList<>();
+		// the inputs that are number literals, which we fix to their value once the inputs are bound
+		Map<String,Expression> literals = new LinkedHashMap<>();
 		Automaton M = new Automaton(true);
 		for(int i = 0 ; i < getArity();i++){
 			Expression currentIndex = temp.pop();
@@ -70,11 +78,15 @@ public class Word extends Token{
 				}
 				else{
 					String new_identifier = currentIndex.identifier+getUniqueString();
-					Automaton eq = W.NS.get(i).equality.clone();
-					eq.bind(currentIndex.identifier,new_identifier);
-					M = M.and(eq,print,prefix+" ",log);
-					quantify.add(new_identifier);
+					diagonals.add(Arrays.asList(currentIndex.identifier,new_identifier));
 					identifiers.add(new_identifier);
+					// the diagonal does not check that the input is a valid representation, as the equality automaton did
+					Automaton valid = W.NS.get(i).getAllRepresentations();
+					if(valid != null && W.NS.get(i).should_we_use_allRepresentations()){
+						valid = valid.clone();
+						valid.bind(currentIndex.identifier);
+						M = M.and(valid,print,prefix+" ",log);
+					}
 				}
 				break;
 			case arithmetic:
@@ -93,18 +105,30 @@ public class Word extends Token{
 				identifiers.add(currentIndex.M.getLabel().get(0));
 				break;
 			case numberLiteral:
-				Automaton constant = currentIndex.base.get(currentIndex.constant);
 				String id = getUniqueString();
-				constant.bind(id);
 				identifiers.add(id);
-				quantify.add(id);
-				M = M.and(constant,print,prefix+" ",log);
+				literals.put(id,currentIndex);
 				break;
 			default:
 				throw new Exception("index "+ (i+1) +" of word " + name + " cannot be of type " +currentIndex.getType());			
 			}	
 		}
 		W.bind(identifiers);
+		for(List<String> diagonal:diagonals){
+			W.restrictDiagonal(diagonal);
+		}
+		for(Map.Entry<String,Expression> literal:literals.entrySet()){
+			String id = literal.getKey();
+			NumberSystem base = literal.getValue().base;
+			int constant = literal.getValue().constant;
+			if(!W.specialize(id,base,constant,print,prefix+" ",log)){
+				// E id, id = constant & ...
+				Automaton C = base.get(constant);
+				C.bind(id);
+				M = M.and(C,print,prefix+" ",log);
+				quantify.add(id);
+			}
+		}
 		S.push(new Expression(stringValue,W,M,quantify));
 		String postStep = prefix + "computed " + stringValue;  
 		log.append(postStep + UtilityMethods.newLine());
@@ -3,9 +3,16 @@ package Automata;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.stream.Stream;
 
 class AutomatonTest {
     @Test
@@ -89,6 +96,323 @@ class AutomatonTest {
         }
     }
 
+    @Test
+    void testTransitionTable() {
+        Automaton a, b;
+        try {
+            List<Integer> alphabet = new ArrayList<>();
+            alphabet.add(0);
+            alphabet.add(1);
+            alphabet.add(2);
+
+            a = new Automaton("01*", alphabet);
+            b = a.clone();
+            b.not(false, "", null);
+            b.not(false, "", null);
+            // minimized automata are kept in the dense transition table
+            Assertions.assertNull(b.d);
+            Assertions.assertNotNull(b.transitionTable);
+            Assertions.assertTrue(a.equals(b));
+
+            b.canonize();
+            b.ensureTransitionMap();
+            Assertions.assertNull(b.transitionTable);
+            Assertions.assertEquals("[{0=>[1]}, {1=>[1]}]", b.d.toString());
+            Assertions.assertTrue(a.equals(b));
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testConcurrentMinimization() {
+        try {
+            List<Integer> alphabet = new ArrayList<>();
+            alphabet.add(0);
+            alphabet.add(1);
+            alphabet.add(2);
+
+            Automaton expected = new Automaton("(01*2|10*)*", alphabet);
+            List<Automaton> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(expected.clone());
+            }
+            // every thread minimizes with its own minimizer
+            results.parallelStream().forEach(a -> {
+                try {
+                    a.not(false, "", null);
+                    a.not(false, "", null);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            for (Automaton a : results) {
+                Assertions.assertTrue(expected.equals(a));
+            }
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testRestrictDiagonal() {
+        try {
+            List<Integer> alphabet = new ArrayList<>();
+            alphabet.add(0);
+            alphabet.add(1);
+
+            // restricting x = y to its diagonal accepts every x
+            Automaton a = new NumberSystem("msd_2").equality.clone();
+            a.bind("x", "y");
+            a.restrictDiagonal(List.of("x", "y"));
+            Assertions.assertEquals("[x]", a.getLabel().toString());
+            Assertions.assertTrue(a.equals(new Automaton("(0|1)*", alphabet)));
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testSpecialize() {
+        try {
+            for (String name : List.of("msd_2", "lsd_2")) {
+                NumberSystem ns = new NumberSystem(name);
+                Automaton a = ns.addition.clone();
+                a.bind("a", "b", "c");
+
+                // Ec, a + b = c & c = 5
+                Automaton expected = a.clone();
+                Automaton five = ns.get(5);
+                five.bind("c");
+                expected = expected.and(five, false, null, null);
+                expected.quantify("c", false, null, null);
+
+                Assertions.assertTrue(a.specialize("c", ns, 5, false, null, null));
+                Assertions.assertEquals("[a, b]", a.getLabel().toString());
+                Assertions.assertTrue(expected.equals(a));
+            }
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testDistinguishingWord() {
+        try {
+            List<Integer> alphabet = new ArrayList<>();
+            alphabet.add(0);
+            alphabet.add(1);
+            alphabet.add(2);
+
+            Automaton a = new Automaton("01*", alphabet);
+            Automaton b = new Automaton("0(1|2)*", alphabet);
+            Assertions.assertNull(a.distinguishingWord(a.clone()));
+            Assertions.assertFalse(a.equals(b));
+            Assertions.assertEquals("[[0], [2]]", a.distinguishingWord(b).toString());
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testForAll() {
+        try {
+            for (String name : List.of("msd_2", "lsd_2", "msd_fib")) {
+                NumberSystem ns = new NumberSystem(name);
+
+                // Aa,b,c a + b = c
+                Automaton a = ns.addition.clone();
+                a.bind("a", "b", "c");
+                a.forAll(new HashSet<>(List.of("a", "b", "c")), false, null, null);
+                Assertions.assertTrue(a.TRUE_FALSE_AUTOMATON);
+                Assertions.assertFalse(a.TRUE_AUTOMATON);
+
+                // Aa,b Ec a + b = c
+                Automaton b = ns.addition.clone();
+                b.bind("a", "b", "c");
+                b.quantify("c", false, null, null);
+                b.forAll(new HashSet<>(List.of("a", "b")), false, null, null);
+                Assertions.assertTrue(b.TRUE_FALSE_AUTOMATON);
+                Assertions.assertTrue(b.TRUE_AUTOMATON);
+            }
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testDecideSentence() {
+        try {
+            NumberSystem ns = new NumberSystem("msd_2");
+            Automaton sum = ns.addition.clone();
+            sum.bind("a", "b", "c");
+            Automaton less = ns.lessThan.clone();
+            less.bind("c", "a");
+
+            // Ea,b,c a + b = c & c < a
+            Automaton e = sum.decideSentence("E", new HashSet<>(List.of("a", "b", "c")), "&", less);
+            Assertions.assertTrue(e.TRUE_FALSE_AUTOMATON);
+            Assertions.assertFalse(e.TRUE_AUTOMATON);
+
+            // Aa,b,c a + b = c ^ c < a
+            Automaton a = sum.decideSentence("A", new HashSet<>(List.of("a", "b", "c")), "^", less);
+            Assertions.assertTrue(a.TRUE_FALSE_AUTOMATON);
+            Assertions.assertFalse(a.TRUE_AUTOMATON);
+
+            // Aa,b,c a + b = c => a + b = c
+            a = sum.decideSentence("A", new HashSet<>(List.of("a", "b", "c")), "=>", sum.clone());
+            Assertions.assertTrue(a.TRUE_AUTOMATON);
+
+            Assertions.assertNull(sum.decideSentence("E", new HashSet<>(List.of("a", "b")), "&", less));
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testNumberSystemBundle() {
+        try {
+            List<String> names = List.of("msd_2", "lsd_fib");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            NumberSystemBundle.write(names, out);
+            NumberSystemBundle bundle = new NumberSystemBundle(out.toByteArray());
+            for (String name : names) {
+                NumberSystem built = new NumberSystem(name);
+                built.memo = new NumberSystemMemo(name, null);
+                NumberSystem read = bundle.read(name);
+                Assertions.assertTrue(built.addition.equals(read.addition));
+                Assertions.assertTrue(built.lessThan.equals(read.lessThan));
+                Assertions.assertTrue(built.equality.equals(read.equality));
+                Assertions.assertTrue(built.get(7).equals(read.get(7)));
+                Assertions.assertTrue(built.getMultiplication(3).equals(read.getMultiplication(3)));
+                Assertions.assertTrue(built.getMultiplication(11).equals(read.getMultiplication(11)));
+            }
+            Assertions.assertNull(bundle.read("msd_3"));
+
+            // a bundle of another version is not read
+            byte[] bytes = out.toByteArray();
+            bytes[7]++;
+            Assertions.assertNull(new NumberSystemBundle(bytes).read("msd_2"));
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testCarryMultiplication() {
+        try {
+            for (String name : List.of("msd_2", "lsd_3", "msd_neg_2", "lsd_neg_3")) {
+                NumberSystem direct = new NumberSystem(name);
+                direct.memo = new NumberSystemMemo(name, null);
+                // the same number system, with multiplication built by doubling
+                NumberSystem doubling = new NumberSystem(name);
+                doubling.memo = new NumberSystemMemo(name, null);
+                doubling.standardBase = 0;
+                for (int n : List.of(2, 3, 7, 12, 25)) {
+                    Automaton a = direct.getMultiplication(direct.is_neg ? -n : n);
+                    Automaton b = doubling.getMultiplication(direct.is_neg ? -n : n);
+                    Assertions.assertEquals(b.Q, a.Q);
+                    Assertions.assertTrue(a.equals(b));
+                }
+            }
+            Assertions.assertEquals(0, new NumberSystem("msd_fib").standardBase);
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testRemainderDivision() {
+        try {
+            for (String name : List.of("msd_2", "lsd_3", "msd_neg_2", "lsd_neg_3")) {
+                NumberSystem direct = new NumberSystem(name);
+                direct.memo = new NumberSystemMemo(name, null);
+                // the same number system, with division and modulo built from products and quantifications
+                NumberSystem quantified = new NumberSystem(name);
+                quantified.memo = new NumberSystemMemo(name, null);
+                quantified.standardBase = 0;
+                for (int n : List.of(1, 2, 3, 7, 12)) {
+                    int m = direct.is_neg ? -n : n;
+                    Automaton a = direct.getDivision(m);
+                    Automaton b = quantified.getDivision(m);
+                    Assertions.assertEquals(b.Q, a.Q);
+                    Assertions.assertTrue(a.equals(b));
+
+                    a = direct.arithmetic("x", m, "y", "%");
+                    b = quantified.arithmetic("x", m, "y", "%");
+                    Assertions.assertEquals("[x, y]", a.getLabel().toString());
+                    Assertions.assertEquals(b.Q, a.Q);
+                    Assertions.assertTrue(a.equals(b));
+                }
+            }
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+    }
+
+    @Test
+    void testNumberSystemMemo() {
+        File directory = null;
+        try {
+            // a cache of its own, so that the one in the working directory is left alone
+            directory = Files.createTempDirectory("numberSystemCache").toFile();
+            NumberSystem ns = new NumberSystem("msd_fib");
+            ns.memo = new NumberSystemMemo("msd_fib", directory);
+            Automaton expected = ns.getMultiplication(37);
+
+            // a number system built later reads multiplication(37) from the cache
+            ns = new NumberSystem("msd_fib");
+            ns.memo = new NumberSystemMemo("msd_fib", directory);
+            Automaton cached = ns.memo.read(ns, "multiplication", 37);
+            Assertions.assertNotNull(cached);
+            Assertions.assertTrue(expected.equals(cached));
+            Assertions.assertTrue(expected.equals(ns.getMultiplication(37)));
+
+            // a damaged file is computed again, and replaced
+            File file = new File(directory, "v" + NumberSystemBundle.VERSION + "." +
+                    NumberSystemMemo.CONSTRUCTION_VERSION + "/msd_fib/multiplication_37.bin");
+            Files.write(file.toPath(), new byte[]{1, 2, 3});
+            ns = new NumberSystem("msd_fib");
+            ns.memo = new NumberSystemMemo("msd_fib", directory);
+            Assertions.assertNull(ns.memo.read(ns, "multiplication", 37));
+            Assertions.assertTrue(expected.equals(ns.getMultiplication(37)));
+            Assertions.assertTrue(expected.equals(ns.memo.read(ns, "multiplication", 37)));
+        }
+        catch (Exception ex) {
+            // Hack because everything throws exceptions
+            Assertions.fail(ex);
+        }
+        finally {
+            if (directory != null) {
+                try (Stream<Path> files = Files.walk(directory.toPath())) {
+                    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
     @Test
     void testAddressAutomatonConstructor() {
         Automaton a, b;